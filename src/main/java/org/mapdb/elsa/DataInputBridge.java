@@ -0,0 +1,51 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Used internally to pass {@link DataInput} into {@link ObjectInputStream2}.
+ * It does not read ahead, {@code DataInput} can not return extra bytes back.
+ * {@link java.io.ObjectInputStream} only requests bytes it knows are present, so bulk reads use {@link DataInput#readFully(byte[], int, int)}.
+ * Instance is reused within single deserialization, see {@link ElsaStack}.
+ */
+final class DataInputBridge extends InputStream {
+
+    DataInput in;
+
+    @Override
+    public int read() throws IOException {
+        try {
+            return in.readUnsignedByte();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        in.readFully(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            int s = in.skipBytes((int) Math.min(n - skipped, Integer.MAX_VALUE));
+            if (s <= 0)
+                break;
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        //underlying input is still used after this object
+    }
+}
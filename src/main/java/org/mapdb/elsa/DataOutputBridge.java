@@ -0,0 +1,36 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Used internally to pass {@link DataOutput} into {@link ObjectOutputStream2}.
+ * {@link java.io.ObjectOutputStream} buffers its data in blocks, those are passed to {@code DataOutput} in bulk.
+ * Instance is reused within single serialization, see {@link ElsaStack}.
+ */
+final class DataOutputBridge extends OutputStream {
+
+    DataOutput out;
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof OutputStream)
+            ((OutputStream) out).flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //underlying output is still used after this object
+    }
+}
@@ -0,0 +1,108 @@
+package org.mapdb.elsa;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Reads objects written by {@link ElsaChannelWriter} from {@link ReadableByteChannel}.
+ * Each frame is read into reused buffer and deserialized from memory.
+ * </p><p>
+ * This class is thread safe. It uses {@link ReentrantLock} rather than {@code synchronized},
+ * so thread blocked on channel does not pin carrier thread if it runs on virtual thread.
+ * </p>
+ */
+public class ElsaChannelReader implements Closeable {
+
+    /** default maximal frame length, 64 MB */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    protected final ElsaSerializer serializer;
+    protected final ReadableByteChannel channel;
+    protected final int maxFrameLength;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /* guarded by lock */
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private byte[] buf = new byte[1024];
+
+    /**
+     * Creates reader which accepts frames up to {@link #DEFAULT_MAX_FRAME_LENGTH} bytes.
+     *
+     * @param serializer serializer used to decode objects
+     * @param channel channel from which frames are read
+     */
+    public ElsaChannelReader(ElsaSerializer serializer, ReadableByteChannel channel) {
+        this(serializer, channel, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * @param serializer serializer used to decode objects
+     * @param channel channel from which frames are read
+     * @param maxFrameLength maximal frame length in bytes, longer frame is treated as corrupted data,
+     *                       so corrupted length does not allocate unbounded memory
+     */
+    public ElsaChannelReader(ElsaSerializer serializer, ReadableByteChannel channel, int maxFrameLength) {
+        if(maxFrameLength<0)
+            throw new IllegalArgumentException();
+        this.serializer = serializer;
+        this.channel = channel;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Reads and deserializes next object.
+     *
+     * @return deserialized object, can be null
+     * @throws EOFException if there are no more objects in channel
+     * @throws StreamCorruptedException if frame length is negative or larger than maximal frame length
+     * @throws IOException an exception from underlying channel
+     */
+    public Object read() throws IOException {
+        lock.lock();
+        try {
+            header.clear();
+            if (!readFully(header, true))
+                throw new EOFException();
+            header.flip();
+            int len = header.getInt();
+            if (len < 0 || len > maxFrameLength)
+                throw new StreamCorruptedException("Wrong frame length: " + len);
+            if (buf.length < len)
+                buf = new byte[(int) Math.min(maxFrameLength, Math.max(len, buf.length * 2L))];
+            readFully(ByteBuffer.wrap(buf, 0, len), false);
+            return serializer.deserialize(new DataInputStream(new ByteArrayInputStream(buf, 0, len)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** fills buffer, returns false if channel ended before first byte and {@code eofAllowed} is set */
+    private boolean readFully(ByteBuffer b, boolean eofAllowed) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0) {
+                if (eofAllowed && b.position() == 0)
+                    return false;
+                throw new EOFException("Frame was truncated");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes underlying channel.
+     *
+     * @throws IOException an exception from underlying channel
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,362 @@
+package org.mapdb.elsa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Serializes objects and writes them into {@link WritableByteChannel} on background thread.
+ * Producer threads only put objects into bounded queue, encoding and I/O are done by writer thread.
+ * Queued objects are encoded in batches and each batch is written with single gathering write.
+ * </p><p>
+ * Each object is written as frame: 4 byte length followed by independent Elsa stream, see {@link ElsaChannelReader}.
+ * Objects are serialized when writer thread takes them, so they should not be modified after {@link #write(Object)}.
+ * </p><p>
+ * Every object accepted by {@link #write(Object)} is written before {@link #close()} returns.
+ * If write fails, remaining objects are discarded and failure is reported by {@link #flush()} and {@link #close()}.
+ * Non-blocking {@link SelectableChannel} is supported, writer thread waits until channel is writable.
+ * </p><p>
+ * This class is thread safe. It uses {@code java.util.concurrent} locks rather than {@code synchronized},
+ * so blocked producer does not pin carrier thread if it runs on virtual thread.
+ * Writer thread is created by given {@link ThreadFactory}, so it can also be virtual thread.
+ * </p>
+ */
+public class ElsaChannelWriter implements Closeable {
+
+    /** marks null value in queue */
+    private static final Object NULL = new Object();
+    /** stops writer thread */
+    private static final Object CLOSE = new Object();
+
+    protected final ElsaSerializer serializer;
+    protected final WritableByteChannel channel;
+    protected final int maxBatch;
+
+    protected final BlockingQueue<Object> queue;
+    protected final Thread thread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    /* guarded by lock */
+    /** number of objects accepted by {@link #write(Object)}, does not change after writer is closed */
+    private long submitted = 0;
+    private long written = 0;
+    private boolean closed = false;
+    private boolean finished = false;
+    private Throwable failure = null;
+
+    /**
+     * Creates writer with queue for 1024 objects and daemon writer thread.
+     *
+     * @param serializer serializer used to encode objects
+     * @param channel channel into which frames are written
+     */
+    public ElsaChannelWriter(ElsaSerializer serializer, WritableByteChannel channel) {
+        this(serializer, channel, 1024, 64, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("ElsaChannelWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param serializer serializer used to encode objects
+     * @param channel channel into which frames are written
+     * @param queueSize maximal number of objects waiting in queue, {@link #write(Object)} blocks if queue is full
+     * @param maxBatch maximal number of objects written by single gathering write
+     * @param threadFactory creates writer thread
+     */
+    public ElsaChannelWriter(ElsaSerializer serializer, WritableByteChannel channel, int queueSize, int maxBatch,
+                             ThreadFactory threadFactory) {
+        if(queueSize<=0 || maxBatch<=0)
+            throw new IllegalArgumentException();
+        this.serializer = serializer;
+        this.channel = channel;
+        this.maxBatch = maxBatch;
+        this.queue = new ArrayBlockingQueue<Object>(queueSize);
+        this.thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                writerLoop();
+            }
+        });
+        this.thread.start();
+    }
+
+    /**
+     * Puts object into queue. Blocks if queue is full. Interrupt does not abort this method, but interrupt status is preserved.
+     *
+     * @param obj object to be serialized, can be null
+     * @throws IOException if writer was closed or previous write failed
+     */
+    public void write(Object obj) throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            //writer thread does not stop until it takes all submitted objects, so put() below can not block forever
+            submitted++;
+        } finally {
+            lock.unlock();
+        }
+        //object was counted and writer thread waits for it, so it must be put into queue even if thread is interrupted
+        putUninterruptibly(obj == null ? NULL : obj);
+    }
+
+    private void putUninterruptibly(Object obj) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(obj);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Waits until all objects passed to {@link #write(Object)} before this call are written into channel.
+     *
+     * @throws IOException if write failed
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = submitted;
+            while (written < target && failure == null && !finished)
+                progress.await();
+            checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all queued objects, stops writer thread and closes channel.
+     * Objects passed to {@link #write(Object)} concurrently with this method are either written, or rejected by exception.
+     *
+     * @throws IOException if write failed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            putUninterruptibly(CLOSE);
+            lock.lock();
+            try {
+                while (!finished)
+                    progress.await();
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            channel.close();
+        }
+        lock.lock();
+        try {
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        checkFailure();
+        if (closed)
+            throw new IOException("Writer is closed");
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Write failed", failure);
+    }
+
+    protected void writerLoop() {
+        List<Object> batch = new ArrayList<Object>(maxBatch);
+        FrameOutput out = new FrameOutput();
+        boolean failed = false;
+        boolean closing = false;
+        long taken = 0;
+        try {
+            //after CLOSE is taken, objects submitted before close() might still be on their way into queue
+            while (!closing || taken < submitted()) {
+                batch.clear();
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    //keep draining queue, so producers are not blocked forever
+                    failed = true;
+                    fail(e);
+                    continue;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+
+                if (batch.remove(CLOSE))
+                    closing = true;
+                taken += batch.size();
+                if (!failed) {
+                    try {
+                        writeBatch(batch, out);
+                    } catch (Throwable e) {
+                        //keep draining queue, so producers are not blocked forever
+                        failed = true;
+                        fail(e);
+                    }
+                }
+            }
+        } finally {
+            closeSelector();
+            lock.lock();
+            try {
+                finished = true;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long submitted() {
+        lock.lock();
+        try {
+            return submitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(Throwable e) {
+        lock.lock();
+        try {
+            if (failure == null)
+                failure = e;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void writeBatch(List<Object> batch, FrameOutput out) throws IOException {
+        if (batch.isEmpty())
+            return;
+        ByteBuffer[] frames = new ByteBuffer[batch.size()];
+        for (int i = 0; i < frames.length; i++) {
+            Object obj = batch.get(i);
+            frames[i] = out.encode(serializer, obj == NULL ? null : obj);
+        }
+
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel c = (GatheringByteChannel) channel;
+            int offset = 0;
+            while (offset < frames.length) {
+                if (c.write(frames, offset, frames.length - offset) == 0)
+                    awaitWritable();
+                while (offset < frames.length && !frames[offset].hasRemaining())
+                    offset++;
+            }
+        } else {
+            for (ByteBuffer b : frames) {
+                while (b.hasRemaining()) {
+                    if (channel.write(b) == 0)
+                        awaitWritable();
+                }
+            }
+        }
+
+        lock.lock();
+        try {
+            written += frames.length;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* used by writer thread to wait on non-blocking channel */
+    private Selector selector = null;
+
+    /** called after channel did not accept any bytes, waits until it can be written again */
+    protected void awaitWritable() throws IOException {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            if (selector == null) {
+                selector = Selector.open();
+                ((SelectableChannel) channel).register(selector, SelectionKey.OP_WRITE);
+            }
+            selector.select();
+            selector.selectedKeys().clear();
+        } else {
+            //channel does not support selector, back off instead of spinning
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void closeSelector() {
+        if (selector == null)
+            return;
+        try {
+            selector.close();
+        } catch (IOException e) {
+            //ignore, channel is closed anyway
+        }
+        selector = null;
+    }
+
+    /** encodes single frame, internal buffer is reused between frames */
+    protected static final class FrameOutput extends ByteArrayOutputStream {
+
+        private final DataOutputStream out = new DataOutputStream(this);
+
+        protected ByteBuffer encode(ElsaSerializer serializer, Object obj) throws IOException {
+            reset();
+            //placeholder for frame length
+            out.writeInt(0);
+            serializer.serialize(out, obj);
+            int len = count - 4;
+            buf[0] = (byte) (len >>> 24);
+            buf[1] = (byte) (len >>> 16);
+            buf[2] = (byte) (len >>> 8);
+            buf[3] = (byte) len;
+            return ByteBuffer.wrap(Arrays.copyOf(buf, count));
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package org.mapdb.elsa;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 
 /**
@@ -71,6 +80,403 @@ public interface ElsaClassInfoResolver {
         }
     }
 
+    /**
+     * <p>
+     * Append-only resolver, which registers new classes at runtime.
+     * It is also {@link ElsaClassCallback}, serializer registers unknown classes here before they are written,
+     * so after warm-up binary data contain only compact class IDs.
+     * </p><p>
+     * Class ID never changes once assigned. Readers use immutable snapshot without locking,
+     * new classes are appended with compare-and-set.
+     * Data can only be deserialized with resolver which has the same classes at the same IDs,
+     * for example the same instance shared by serializer and deserializer.
+     * </p>
+     */
+    public class Growable implements ElsaClassInfoResolver, ElsaClassCallback {
+
+        /** immutable state, replaced on each append */
+        protected static final class Snapshot {
+            final ElsaSerializerPojo.ClassInfo[] classInfos;
+            final Map<String, Integer> reverse;
+
+            Snapshot(ElsaSerializerPojo.ClassInfo[] classInfos, Map<String, Integer> reverse) {
+                this.classInfos = classInfos;
+                this.reverse = reverse;
+            }
+        }
+
+        protected final ClassLoader classLoader;
+        protected final AtomicReference<Snapshot> snapshot;
+
+        /**
+         * @param classInfos initial classes, index in array is class ID in binary data
+         * @param classLoader used to load classes from their name
+         */
+        public Growable(ElsaSerializerPojo.ClassInfo[] classInfos, ClassLoader classLoader) {
+            this.classLoader = classLoader;
+            Map<String, Integer> reverse = new HashMap<String, Integer>();
+            for(int i=0;i<classInfos.length;i++){
+                reverse.put(classInfos[i].name, i);
+            }
+            snapshot = new AtomicReference<Snapshot>(new Snapshot(classInfos.clone(), reverse));
+        }
+
+        public Growable(ClassLoader classLoader) {
+            this(new ElsaSerializerPojo.ClassInfo[0], classLoader);
+        }
+
+        @Override
+        public ElsaSerializerPojo.ClassInfo getClassInfo(int classId) {
+            ElsaSerializerPojo.ClassInfo[] classInfos = snapshot.get().classInfos;
+            if(classId>=classInfos.length)
+                throw new ElsaException("Unknown class ID: "+classId);
+            return classInfos[classId];
+        }
+
+        @Override
+        public int classToId(String className) {
+            Integer ret = snapshot.get().reverse.get(className);
+            return ret!=null?ret : -1;
+        }
+
+        @Override
+        public void classMissing(Class clazz) {
+            register(clazz);
+        }
+
+        /**
+         * Registers class if it is not already known.
+         *
+         * @param clazz class to register
+         * @return class ID
+         */
+        public int register(Class clazz) {
+            Integer ret = snapshot.get().reverse.get(clazz.getName());
+            if(ret!=null)
+                return ret;
+            return append(ElsaSerializerPojo.makeClassInfo(clazz, classLoader));
+        }
+
+        /**
+         * Appends class info, if class with the same name is not already registered.
+         *
+         * @param classInfo class structure
+         * @return class ID
+         */
+        protected int append(ElsaSerializerPojo.ClassInfo classInfo) {
+            while(true) {
+                Snapshot old = snapshot.get();
+                Integer ret = old.reverse.get(classInfo.name);
+                if(ret!=null)
+                    return ret;
+                int classId = old.classInfos.length;
+                ElsaSerializerPojo.ClassInfo[] classInfos = Arrays.copyOf(old.classInfos, classId+1);
+                classInfos[classId] = classInfo;
+                Map<String, Integer> reverse = new HashMap<String, Integer>(old.reverse);
+                reverse.put(classInfo.name, classId);
+                if(snapshot.compareAndSet(old, new Snapshot(classInfos, reverse)))
+                    return classId;
+            }
+        }
+
+        /**
+         * @return copy of all registered classes, index in array is class ID
+         */
+        public ElsaSerializerPojo.ClassInfo[] getClassInfos() {
+            return snapshot.get().classInfos.clone();
+        }
+    }
+
+    /**
+     * <p>
+     * Growable resolver persisted in local file, so class IDs survive restarts.
+     * Each class is appended to file as length prefixed Class Info,
+     * written by {@link ElsaSerializerPojo#classInfoSerialize(DataOutput, ElsaSerializerPojo.ClassInfo)}
+     * and followed by its CRC32 checksum.
+     * Class ID is position of entry in file.
+     * </p><p>
+     * Entries are indexed by class name and resolved into Class Info lazily, when class ID is first used.
+     * So processes with different classpath can share single file, as long as they do not read each other's classes.
+     * If class changes after it was stored, new version of Class Info is appended under new class ID.
+     * Older version is still used to read old data, values of fields which do not exist anymore are ignored.
+     * </p><p>
+     * File is memory-mapped for reads. Reads are guarded by shared file lock and appends by exclusive file lock,
+     * new entries written by other processes are loaded before each append, so several processes on the same host can share single file.
+     * Incomplete entry left by crashed process is removed when file is opened.
+     * File locks are held by JVM, so only one instance per file should be opened in single JVM.
+     * </p>
+     */
+    public class FileBased extends Growable implements Closeable {
+
+        /** single entry in file */
+        protected static final class Entry {
+            final String name;
+            /** Class Info in binary form */
+            final byte[] data;
+            /** resolved lazily */
+            volatile ElsaSerializerPojo.ClassInfo classInfo;
+            /** if class can be serialized with this entry, null if not checked yet */
+            volatile Boolean compatible;
+
+            Entry(String name, byte[] data) {
+                this.name = name;
+                this.data = data;
+            }
+        }
+
+        /** immutable state, replaced after each load */
+        protected static final class Catalog {
+            final Entry[] entries;
+            /** latest class ID for each class name */
+            final Map<String, Integer> latest;
+
+            Catalog(Entry[] entries, Map<String, Integer> latest) {
+                this.entries = entries;
+                this.latest = latest;
+            }
+        }
+
+        protected final FileChannel channel;
+        /** used to encode and decode Class Infos */
+        protected final ElsaSerializerPojo serializer;
+        protected final ReentrantLock lock = new ReentrantLock();
+        /** size of file which was already loaded, guarded by lock */
+        protected long loadedSize = 0;
+        protected volatile Catalog catalog = new Catalog(new Entry[0], new HashMap<String, Integer>());
+
+        /**
+         * Opens file, or creates new empty file if it does not exist.
+         *
+         * @param file file with class catalog
+         * @param classLoader used to load classes from their name
+         * @throws IOException an exception from underlying file
+         */
+        public FileBased(File file, ClassLoader classLoader) throws IOException {
+            super(classLoader);
+            this.serializer = new ElsaMaker().classLoader(classLoader).make();
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            lock.lock();
+            try {
+                FileLock fileLock = channel.lock();
+                try {
+                    load();
+                    //nobody else is writing, so incomplete entry was left by crashed process
+                    if(channel.size()>loadedSize)
+                        channel.truncate(loadedSize);
+                } finally {
+                    fileLock.release();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public ElsaSerializerPojo.ClassInfo getClassInfo(int classId) {
+            Entry[] entries = catalog.entries;
+            if(classId>=entries.length){
+                //class might be added by other process
+                lock.lock();
+                try {
+                    FileLock fileLock = channel.lock(0, Long.MAX_VALUE, true);
+                    try {
+                        load();
+                    } finally {
+                        fileLock.release();
+                    }
+                } catch (IOException e) {
+                    throw new ElsaException(e);
+                } finally {
+                    lock.unlock();
+                }
+                entries = catalog.entries;
+                if(classId>=entries.length)
+                    throw new ElsaException("Unknown class ID: "+classId);
+            }
+            return resolve(entries[classId]);
+        }
+
+        protected ElsaSerializerPojo.ClassInfo resolve(Entry entry){
+            ElsaSerializerPojo.ClassInfo ret = entry.classInfo;
+            if(ret==null){
+                try {
+                    ret = serializer.classInfoDeserialize(new DataInputStream(new ByteArrayInputStream(entry.data)), true);
+                } catch (IOException e) {
+                    throw new ElsaException(e);
+                }
+                entry.classInfo = ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public int classToId(String className) {
+            Catalog c = catalog;
+            Integer ret = c.latest.get(className);
+            if(ret==null)
+                return -1;
+            Entry entry = c.entries[ret];
+            Boolean compatible = entry.compatible;
+            if(compatible==null){
+                compatible = isCompatible(entry);
+                entry.compatible = compatible;
+            }
+            //class has changed, it must be registered again
+            return compatible ? ret : -1;
+        }
+
+        /** returns true if current version of class can be serialized with stored Class Info */
+        protected boolean isCompatible(Entry entry){
+            Class clazz;
+            try {
+                clazz = Class.forName(entry.name, false, ElsaSerializerBase.defaultClassLoaderIfNull(classLoader));
+            } catch (ClassNotFoundException e) {
+                //class can not be serialized by this process anyway
+                return true;
+            }
+            return isCompatible(resolve(entry), ElsaSerializerPojo.makeClassInfo(clazz, classLoader));
+        }
+
+        /** returns true if all fields of current Class Info exist in stored Class Info */
+        protected static boolean isCompatible(ElsaSerializerPojo.ClassInfo stored, ElsaSerializerPojo.ClassInfo current){
+            if(stored.isEnum!=current.isEnum || stored.externalizable!=current.externalizable
+                    || stored.useObjectStream!=current.useObjectStream)
+                return false;
+            for(ElsaSerializerPojo.FieldInfo f:current.fields){
+                int fieldId = stored.getFieldId(f.name);
+                if(fieldId==-1)
+                    return false;
+                ElsaSerializerPojo.FieldInfo f2 = stored.fields[fieldId];
+                if(f2.field==null || f2.primitive!=f.primitive || !f2.type.equals(f.type))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int register(Class clazz) {
+            int classId = classToId(clazz.getName());
+            if(classId>=0)
+                return classId;
+            return append(ElsaSerializerPojo.makeClassInfo(clazz, classLoader));
+        }
+
+        /**
+         * Appends class info to file, if class with the same name and compatible structure is not already stored.
+         *
+         * @param classInfo class structure
+         * @return class ID
+         */
+        @Override
+        protected int append(ElsaSerializerPojo.ClassInfo classInfo) {
+            lock.lock();
+            try {
+                FileLock fileLock = channel.lock();
+                try {
+                    load();
+                    //other process might already store the same class
+                    Catalog c = catalog;
+                    Integer classId = c.latest.get(classInfo.name);
+                    if(classId!=null && isCompatible(resolve(c.entries[classId]), classInfo))
+                        return classId;
+
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    serializer.classInfoSerialize(out, classInfo);
+                    byte[] data = bytes.toByteArray();
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+
+                    ByteBuffer b = ByteBuffer.allocate(data.length + 8);
+                    b.putInt(data.length);
+                    b.put(data);
+                    b.putInt((int) crc.getValue());
+                    b.flip();
+                    //remove incomplete entry, if process crashed after this file was opened
+                    if(channel.size()>loadedSize)
+                        channel.truncate(loadedSize);
+                    long pos = loadedSize;
+                    while (b.hasRemaining()) {
+                        pos += channel.write(b, pos);
+                    }
+                    channel.force(false);
+                    loadedSize = pos;
+                    return add(new Entry(classInfo.name, data));
+                } finally {
+                    fileLock.release();
+                }
+            } catch (IOException e) {
+                throw new ElsaException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** adds entry to catalog, must be called with lock held */
+        private int add(Entry entry){
+            Catalog old = catalog;
+            int classId = old.entries.length;
+            Entry[] entries = Arrays.copyOf(old.entries, classId+1);
+            entries[classId] = entry;
+            Map<String, Integer> latest = new HashMap<String, Integer>(old.latest);
+            latest.put(entry.name, classId);
+            catalog = new Catalog(entries, latest);
+            return classId;
+        }
+
+        /**
+         * Loads entries appended to file since last load, must be called with lock and file lock held.
+         * Loading stops at first incomplete or corrupted entry.
+         */
+        protected void load() throws IOException {
+            long size = channel.size();
+            if(size<=loadedSize)
+                return;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, loadedSize, size - loadedSize);
+            CRC32 crc = new CRC32();
+            while (map.remaining() >= 8) {
+                int len = map.getInt(map.position());
+                if (len < 0 || map.remaining() - 8 < len)
+                    return; //incomplete entry
+                byte[] data = new byte[len];
+                map.position(map.position() + 4);
+                map.get(data);
+                crc.reset();
+                crc.update(data);
+                if (map.getInt() != (int) crc.getValue())
+                    return; //corrupted entry
+                add(new Entry(new DataInputStream(new ByteArrayInputStream(data)).readUTF(), data));
+                loadedSize += 8 + len;
+            }
+        }
+
+        /**
+         * @return copy of all stored classes, index in array is class ID
+         */
+        @Override
+        public ElsaSerializerPojo.ClassInfo[] getClassInfos() {
+            Entry[] entries = catalog.entries;
+            ElsaSerializerPojo.ClassInfo[] ret = new ElsaSerializerPojo.ClassInfo[entries.length];
+            for(int i=0;i<ret.length;i++){
+                ret[i] = resolve(entries[i]);
+            }
+            return ret;
+        }
+
+        /**
+         * Closes underlying file.
+         *
+         * @throws IOException an exception from underlying file
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
     /**
      * Resolves Integer Class ID (used in binary data) into Class Info which contains  class name, fields name, fields order...
      *
@@ -0,0 +1,173 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.mapdb.elsa.ElsaSerializerBase.Header;
+
+/**
+ * <p>
+ * Iterates over elements of serialized collection, without deserializing entire collection.
+ * Elements are deserialized one at a time, when {@link #next()} is called.
+ * Map yields its entries as {@link java.util.Map.Entry}.
+ * </p><p>
+ * Elements can reference each other, so already read elements are kept on object stack.
+ * To iterate with constant memory, data should be written with reference tracking disabled
+ * ({@link ElsaMaker#referenceDisable()}), or as chunked collection ({@link ElsaMaker#parallel(java.util.concurrent.ForkJoinPool, int)}),
+ * in that case object stack is cleared after each chunk.
+ * Reference from element to collection itself is deserialized as null.
+ * </p><p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @param <E> type of elements
+ */
+public class ElsaCollectionIterator<E> implements Iterator<E> {
+
+    protected final ElsaSerializerBase serializer;
+    protected final DataInput in;
+    protected final int size;
+    protected final boolean map;
+    protected final boolean allNull;
+    protected final boolean chunked;
+
+    protected ElsaStack objectStack;
+    protected int read = 0;
+    /** number of elements left in current chunk */
+    protected int chunkRemaining = 0;
+
+    /**
+     * Reads collection header from input. Input is positioned at first element after this constructor.
+     *
+     * @param serializer serializer used to decode elements
+     * @param in input with serialized collection
+     * @throws IOException an exception from underlying stream
+     * @throws ElsaException if input does not start with supported collection
+     */
+    public ElsaCollectionIterator(ElsaSerializerBase serializer, DataInput in) throws IOException {
+        this.serializer = serializer;
+        this.in = in;
+        this.objectStack = serializer.newElsaStack();
+
+        int head = in.readUnsignedByte();
+        boolean map = false;
+        boolean allNull = false;
+        boolean chunked = false;
+        boolean comparator = false;
+        switch (head){
+            case Header.ARRAYLIST:
+            case Header.LINKEDLIST:
+            case Header.HASHSET:
+            case Header.LINKEDHASHSET:
+            case Header.ARRAY_DEQUE:
+            case Header.COPY_ON_WRITE_ARRAYLIST:
+                break;
+            case Header.TREESET:
+            case Header.PRIORITY_QUEUE:
+            case Header.CONCURRENT_SKIPLIST_SET:
+                comparator = true;
+                break;
+            case Header.HASHMAP:
+            case Header.LINKEDHASHMAP:
+            case Header.PROPERTIES:
+            case Header.IDENTITY_HASHMAP:
+            case Header.WEAK_HASHMAP:
+            case Header.CONCURRENT_HASHMAP:
+                map = true;
+                break;
+            case Header.TREEMAP:
+            case Header.CONCURRENT_SKIPLIST_MAP:
+                map = true;
+                comparator = true;
+                break;
+            case Header.ARRAY_OBJECT:
+            case Header.ARRAY_OBJECT_CLASS_REF:
+                break;
+            case Header.ARRAY_OBJECT_ALL_NULL:
+            case Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF:
+                allNull = true;
+                break;
+            case Header.ARRAYLIST_CHUNKED:
+            case Header.ARRAY_OBJECT_CHUNKED:
+                chunked = true;
+                break;
+            case Header.HASHMAP_CHUNKED:
+                map = true;
+                chunked = true;
+                break;
+            default:
+                throw new ElsaException("Not a collection, header: "+head);
+        }
+        this.map = map;
+        this.allNull = allNull;
+        this.chunked = chunked;
+        this.size = ElsaUtil.unpackInt(in);
+
+        //component type is not needed
+        if(head==Header.ARRAY_OBJECT || head==Header.ARRAY_OBJECT_ALL_NULL || head==Header.ARRAY_OBJECT_CHUNKED)
+            in.readUTF();
+        else if(head==Header.ARRAY_OBJECT_CLASS_REF || head==Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF)
+            serializer.deserializeClassRef(in, objectStack);
+
+        if(chunked) {
+            //number of chunks
+            ElsaUtil.unpackInt(in);
+        }else{
+            //position of collection itself, it is never created
+            objectStack.add(null);
+        }
+        if(comparator)
+            serializer.deserialize(in, objectStack);
+    }
+
+    /** @return number of elements (or map entries) in collection */
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return read < size;
+    }
+
+    @Override
+    public E next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        read++;
+        if(allNull)
+            return null;
+        try {
+            if(chunked && chunkRemaining-- == 0){
+                chunkRemaining = ElsaUtil.unpackInt(in) - 1;
+                //byte size of chunk
+                ElsaUtil.unpackInt(in);
+                //chunk is independent stream, collection itself is at its first position and is never created
+                objectStack = serializer.newElsaStack();
+                objectStack.add(null);
+            }
+            Object ret = serializer.deserialize(in, objectStack);
+            if(map)
+                ret = new AbstractMap.SimpleImmutableEntry(ret, serializer.deserialize(in, objectStack));
+            return (E) ret;
+        } catch (IOException e) {
+            throw new ElsaException(e);
+        }
+    }
+
+    /**
+     * @return sequential stream of remaining elements
+     */
+    public Stream<E> stream(){
+        return StreamSupport.stream(
+                Spliterators.spliterator(this, size - read, Spliterator.ORDERED),
+                false);
+    }
+}
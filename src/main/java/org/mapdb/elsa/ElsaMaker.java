@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * ElsaMaker is used to create and configure Elsa serializer.
@@ -16,6 +17,7 @@ final public class ElsaMaker {
     protected Object[] singletons = null;
     protected List<Class> classes = new ArrayList<Class>();
     protected ElsaClassCallback unknownClassNotification = null;
+    protected ElsaClassInfoResolver classInfoResolver = null;
 
     protected Map<Class, ElsaSerializerBase.Serializer> registeredSers = new HashMap();
     protected Map<Class, Integer> registeredSerHeaders = new HashMap();
@@ -30,6 +32,9 @@ final public class ElsaMaker {
      */
     protected int objectStack = 0;
 
+    protected ForkJoinPool parallelPool = null;
+    protected int parallelChunkSize = 0;
+
     /**
      * Register list of singletons. Singletons are serialized using only two bytes. Deserialized singletons  keep reference equality.
      * Note: Order in which singletons are registered defines storage format. To deserialize data back, you need to always register singleton at the same order.
@@ -43,7 +48,9 @@ final public class ElsaMaker {
     }
 
     /**
-     * Creates new serializer with configuration from this builder
+     * Creates new serializer with configuration from this builder.
+     * Serializer is thread safe and should be shared, it caches class structures.
+     * Registered serializers, deserializers and class callback must be thread safe as well.
      *
      * @return new serializer
      */
@@ -56,7 +63,10 @@ final public class ElsaMaker {
                 registeredSerHeaders,
                 registeredDeser,
                 unknownClassNotification,
-                new ElsaClassInfoResolver.ArrayBased(classes.toArray(new Class[0]), classLoader)
+                classInfoResolver!=null? classInfoResolver :
+                        new ElsaClassInfoResolver.ArrayBased(classes.toArray(new Class[0]), classLoader),
+                parallelPool,
+                parallelChunkSize
         );
     }
 
@@ -67,11 +77,28 @@ final public class ElsaMaker {
      * @return this maker
      */
     public ElsaMaker registerClasses(Class... classes){
+        if(classInfoResolver!=null)
+            throw new IllegalArgumentException("Class Info resolver is already set");
         for(Class clazz:classes)
             this.classes.add(clazz);
         return this;
     }
 
+    /**
+     * Use custom Class Info resolver instead of classes registered with {@link #registerClasses(Class[])}.
+     * If resolver is also {@link ElsaClassCallback} (such as {@link ElsaClassInfoResolver.Growable}),
+     * it is notified about unknown classes, so it can register them before they are written.
+     *
+     * @param resolver resolver used to map classes to their IDs
+     * @return this maker
+     */
+    public ElsaMaker classInfoResolver(ElsaClassInfoResolver resolver){
+        if(!classes.isEmpty())
+            throw new IllegalArgumentException("Classes were already registered with registerClasses()");
+        this.classInfoResolver = resolver;
+        return this;
+    }
+
     /**
      * Callback notified when class with unknown structure is serialized.
      * You can than add unknown Class to your Class Catalog (or whatever you are using)
@@ -164,6 +191,25 @@ final public class ElsaMaker {
         return this;
     }
 
+    /**
+     * Enables parallel serialization of large top-level {@code ArrayList}, {@code Object[]} and {@code HashMap}.
+     * Collection with more than {@code chunkSize} elements is split into chunks, which are serialized concurrently.
+     * Each chunk has its own object stack, so references between chunks are not preserved
+     * and object shared by two chunks is deserialized as two different instances.
+     * Chunked data are also deserialized concurrently.
+     *
+     * @param pool pool used to serialize chunks
+     * @param chunkSize number of elements in single chunk
+     * @return this maker
+     */
+    public ElsaMaker parallel(ForkJoinPool pool, int chunkSize){
+        if(pool==null || chunkSize<=0)
+            throw new IllegalArgumentException();
+        this.parallelPool = pool;
+        this.parallelChunkSize = chunkSize;
+        return this;
+    }
+
     /**
      * User defined Class Loader used by Elsa to load classes.
      *
@@ -43,6 +43,31 @@ public class ElsaObjectInputStream extends InputStream implements ObjectInput {
         return input.readUnsignedByte();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(input instanceof InputStream)
+            return ((InputStream) input).read(b, off, len);
+        //DataInput does not tell how many bytes are available, caller should know data length
+        if(len==0)
+            return 0;
+        input.readFully(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if(input instanceof InputStream)
+            return ((InputStream) input).skip(n);
+        long skipped = 0;
+        while(skipped<n){
+            int s = input.skipBytes((int) Math.min(n - skipped, Integer.MAX_VALUE));
+            if(s<=0)
+                break;
+            skipped+=s;
+        }
+        return skipped;
+    }
+
     @Override
     public void close() throws IOException {
         if(input instanceof Closeable)
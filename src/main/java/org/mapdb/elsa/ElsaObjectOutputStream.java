@@ -44,6 +44,16 @@ public class ElsaObjectOutputStream extends OutputStream implements ObjectOutput
         out.write(b);
     }
 
+    @Override
+    public void write(byte[] b) throws IOException {
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
     @Override
     public void close() throws IOException {
         if(out instanceof Closeable)
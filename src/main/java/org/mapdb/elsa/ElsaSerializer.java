@@ -29,6 +29,20 @@ public interface ElsaSerializer {
      */
     Object deserialize(DataInput input) throws IOException;
 
+    /**
+     * Reads binary data from input and tries to reuse existing instance, rather than allocating new one.
+     * Default implementation ignores target and returns new instance.
+     *
+     * @param input input to read data from
+     * @param target existing instance to be refilled, can be null
+     * @param <E> type of deserialized object
+     * @return target if it was reused, otherwise new instance
+     * @throws IOException an exception from underlying stream
+     */
+    default <E> E deserializeInto(DataInput input, E target) throws IOException {
+        return (E) deserialize(input);
+    }
+
     /**
      * Deep binary clone. Serialize object into binary form, and then use data to deserialize it.
      * Returned object should be equal to original, but is completely different instance.
@@ -18,8 +18,13 @@ package org.mapdb.elsa;
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>
@@ -39,6 +44,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * {@link ElsaSerializerBase#deserializeUnknownHeader(DataInput, int, ElsaStack)} function for deserialization.
  * By default this throws an {@code IOException}.
  * But this method can be overridden in subclasses to add extra functionality({@link ElsaSerializerPojo} is subclass).
+ * </p><p>
+ * Serializer is thread safe, single instance can be shared by many threads for concurrent serialization and deserialization.
+ * State of single (de)serialization is in {@link ElsaStack}. Shared state is either immutable after construction
+ * (registered serializers, singletons, header table), attached to {@code Class} with {@link ClassValue},
+ * or stored in read-only snapshot replaced on update. Reads never lock or write into shared memory.
  * </p>
  * @author Jan Kotek
  */
@@ -92,6 +102,145 @@ public class ElsaSerializerBase implements ElsaSerializer{
         }
     }
 
+    /**
+     * Container which is being deserialized. It is created by {@link ContainerDeserializer} or
+     * {@link #openUnknownHeader(DataInput, int, ElsaStack)}, its elements are read by
+     * {@link #deserializeFrames(DataInput, ElsaStack, DeserFrame)} and passed into {@link #add(Object)}.
+     */
+    protected static abstract class DeserFrame{
+        /** number of elements which were not read yet */
+        protected int remaining;
+        /** container which contains this container, is null for outermost one */
+        protected DeserFrame parent;
+        /** if set, {@link #nextTarget()} provides existing instances for elements */
+        protected boolean merge = false;
+
+        protected DeserFrame(int remaining) {
+            if(remaining<0)
+                throw new ElsaException("Wrong container size: "+remaining);
+            this.remaining = remaining;
+        }
+
+        /**
+         * Receives next element.
+         *
+         * @param o deserialized element
+         * @throws IOException an exception from underlying stream
+         */
+        protected abstract void add(Object o) throws IOException;
+
+        /**
+         * Called after all elements were read.
+         *
+         * @return deserialized container
+         * @throws IOException an exception from underlying stream
+         */
+        protected abstract Object finish() throws IOException;
+
+        /**
+         * Called before next element is read, if {@link #merge} is set.
+         *
+         * @return existing instance which should be refilled by next element, or null
+         */
+        protected Object nextTarget(){
+            return null;
+        }
+    }
+
+    /** adds elements into collection */
+    protected static class CollectionFrame extends DeserFrame{
+        protected Collection c;
+
+        protected CollectionFrame(int remaining, Collection c) {
+            super(remaining);
+            this.c = c;
+        }
+
+        @Override
+        protected void add(Object o) {
+            c.add(o);
+        }
+
+        @Override
+        protected Object finish() {
+            return c;
+        }
+    }
+
+    /** puts keys and values into map, elements are key and value alternately */
+    protected static class MapFrame extends DeserFrame{
+        protected Map m;
+        private Object key;
+
+        protected MapFrame(int remaining, Map m) {
+            super(remaining);
+            this.m = m;
+        }
+
+        @Override
+        protected void add(Object o) {
+            //remaining count is odd after key was read
+            if((remaining & 1) != 0) {
+                key = o;
+            }else{
+                m.put(key, o);
+                key = null;
+            }
+        }
+
+        @Override
+        protected Object finish() {
+            return m;
+        }
+    }
+
+    /** fills array */
+    protected static class ArrayFrame extends DeserFrame{
+        protected final Object[] a;
+
+        protected ArrayFrame(Object[] a) {
+            super(a.length);
+            this.a = a;
+        }
+
+        @Override
+        protected void add(Object o) {
+            a[a.length - remaining - 1] = o;
+        }
+
+        @Override
+        protected Object finish() {
+            return a;
+        }
+    }
+
+    /**
+     * Deserializer of container. It only reads container header and opens {@link DeserFrame},
+     * elements are read by {@link #deserializeFrames(DataInput, ElsaStack, DeserFrame)} without recursion.
+     */
+    protected abstract class ContainerDeserializer implements Deserializer{
+
+        /**
+         * Reads container header, creates container and adds it into object stack.
+         *
+         * @param in to read serialized data from
+         * @param objectStack object stack used to handle backward references
+         * @return opened container
+         * @throws IOException from underlying stream
+         */
+        protected abstract DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException;
+
+        @Override
+        public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+            return deserializeFrames(in, objectStack, open(in, objectStack));
+        }
+
+        @Override
+        public boolean needsObjectStack() {
+            return true;
+        }
+    }
+
     /** always returns single object without reading anything*/
     protected final class DeserSingleton implements Deserializer {
 
@@ -190,13 +339,20 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
 
     protected final Map<Class, Serializer> ser = new IdentityHashMap<Class, Serializer>();
-    protected final Map<String, Class> classCache = new ConcurrentHashMap<String, Class>();
+    /**
+     * Read-only snapshot of loaded classes. Updates are rare (only on first use of class),
+     * so map is copied and replaced on each update, and reads do not need any synchronization.
+     */
+    protected volatile Map<String, Class> classCache = Collections.emptyMap();
 
     protected final Deserializer[] headerDeser = new Deserializer[255];
     protected final Deserializer[] userDeser;
 
     protected final ClassLoader classLoader;
 
+    protected final ForkJoinPool parallelPool;
+    protected final int parallelChunkSize;
+
     protected Class<?> loadClassCached(String name) throws ClassNotFoundException {
         return loadClassCached(name, classLoader);
     }
@@ -205,13 +361,19 @@ public class ElsaSerializerBase implements ElsaSerializer{
         Class c = classCache.get(name);
         if(c==null) {
             //load class and put it into cache
-            //this is thread safe, worst case is that `Class.forName` will be called more than once at initialization, which is fine
+            //worst case is that `Class.forName` will be called more than once at initialization, which is fine
             c = Class.forName(name, true, classLoader);
-            classCache.put(name, c);
+            synchronized (classCacheLock){
+                Map<String, Class> newCache = new HashMap<String, Class>(classCache);
+                newCache.put(name, c);
+                classCache = newCache;
+            }
         }
         return c;
     }
 
+    private final Object classCacheLock = new Object();
+
 
     protected Class loadClassCachedUnchecked(String name){
         try {
@@ -233,8 +395,28 @@ public class ElsaSerializerBase implements ElsaSerializer{
             Map<Class, Serializer> userSer,
             Map<Class, Integer> userSerHeaders,
             Map<Integer, Deserializer> userDeser){
+        this(classLoader, objectStackType, singletons, userSer, userSerHeaders, userDeser, null, 0);
+    }
+
+    /**
+     * @param parallelPool pool used to serialize large collections in chunks, null to disable parallel serialization
+     * @param parallelChunkSize number of elements in single chunk
+     */
+    public ElsaSerializerBase(
+            ClassLoader classLoader,
+            int objectStackType,
+            Object[] singletons,
+            Map<Class, Serializer> userSer,
+            Map<Class, Integer> userSerHeaders,
+            Map<Integer, Deserializer> userDeser,
+            ForkJoinPool parallelPool,
+            int parallelChunkSize){
+        if(parallelPool!=null && parallelChunkSize<=0)
+            throw new IllegalArgumentException("parallelChunkSize must be positive");
         this.classLoader = defaultClassLoaderIfNull(classLoader);
         this.objectStackType = objectStackType;
+        this.parallelPool = parallelPool;
+        this.parallelChunkSize = parallelChunkSize;
         this.singletons = singletons!=null? singletons.clone():new Object[0];
         for(int i=0;i<this.singletons.length;i++){
             singletonsReverse.put(this.singletons[i], i);
@@ -359,8 +541,8 @@ public class ElsaSerializerBase implements ElsaSerializer{
         ser.put(Class.class, new Serializer<Class<?>>(){
             @Override
             public void serialize(DataOutput out, Class<?> value, ElsaStack objectStack) throws IOException {
-                out.write(Header.CLASS);
-                out.writeUTF(value.getName());
+                out.write(Header.CLASS_REF);
+                serializeClassRef(out, value, objectStack);
             }
         });
 
@@ -458,10 +640,627 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 objectStack.stackPushMap(l);
             }
         });
+
+        ser.put(ConcurrentHashMap.class, new Serializer<Map>(){
+            @Override
+            public void serialize(DataOutput out, Map value, ElsaStack objectStack) throws IOException {
+                List<Object> entries = mapSnapshot(value);
+                out.write(Header.CONCURRENT_HASHMAP);
+                ElsaUtil.packInt(out, entries.size()/2);
+                objectStack.stackPushIter(entries);
+            }
+        });
+
+        ser.put(ConcurrentSkipListMap.class, new Serializer<ConcurrentSkipListMap>(){
+            @Override
+            public void serialize(DataOutput out, ConcurrentSkipListMap value, ElsaStack objectStack) throws IOException {
+                List<Object> entries = mapSnapshot(value);
+                out.write(Header.CONCURRENT_SKIPLIST_MAP);
+                ElsaUtil.packInt(out, entries.size()/2);
+                objectStack.stackPush(value.comparator());
+                objectStack.stackPushIter(entries);
+            }
+        });
+
+        ser.put(ConcurrentSkipListSet.class, new Serializer<ConcurrentSkipListSet>(){
+            @Override
+            public void serialize(DataOutput out, ConcurrentSkipListSet value, ElsaStack objectStack) throws IOException {
+                Object[] items = value.toArray();
+                out.write(Header.CONCURRENT_SKIPLIST_SET);
+                ElsaUtil.packInt(out, items.length);
+                objectStack.stackPush(value.comparator());
+                objectStack.stackPushIter(Arrays.asList(items));
+            }
+        });
+
+        ser.put(CopyOnWriteArrayList.class, new Serializer<CopyOnWriteArrayList>(){
+            @Override
+            public void serialize(DataOutput out, CopyOnWriteArrayList value, ElsaStack objectStack) throws IOException {
+                //toArray() is atomic snapshot
+                Object[] items = value.toArray();
+                out.write(Header.COPY_ON_WRITE_ARRAYLIST);
+                ElsaUtil.packInt(out, items.length);
+                objectStack.stackPushIter(Arrays.asList(items));
+            }
+        });
+
+        ser.put(ArrayDeque.class, new Serializer<Collection>(){
+            @Override
+            public void serialize(DataOutput out, Collection value, ElsaStack objectStack) throws IOException {
+                serializeCollection(Header.ARRAY_DEQUE, out, value, objectStack);
+            }
+        });
+
+        ser.put(PriorityQueue.class, new Serializer<PriorityQueue>(){
+            @Override
+            public void serialize(DataOutput out, PriorityQueue value, ElsaStack objectStack) throws IOException {
+                out.write(Header.PRIORITY_QUEUE);
+                ElsaUtil.packInt(out, value.size());
+                objectStack.stackPush(value.comparator());
+                //iterator returns elements in heap order
+                objectStack.stackPushIter(value);
+            }
+        });
+
+        ser.put(IdentityHashMap.class, new Serializer<Map>(){
+            @Override
+            public void serialize(DataOutput out, Map value, ElsaStack objectStack) throws IOException {
+                serializeMap(Header.IDENTITY_HASHMAP, out, value, objectStack);
+            }
+        });
+
+        ser.put(WeakHashMap.class, new Serializer<Map>(){
+            @Override
+            public void serialize(DataOutput out, Map value, ElsaStack objectStack) throws IOException {
+                //entries might disappear while map is iterated
+                List<Object> entries = mapSnapshot(value);
+                out.write(Header.WEAK_HASHMAP);
+                ElsaUtil.packInt(out, entries.size()/2);
+                objectStack.stackPushIter(entries);
+            }
+        });
+
+        ser.put(BitSet.class, new Serializer<BitSet>(){
+            @Override
+            public void serialize(DataOutput out, BitSet value, ElsaStack objectStack) throws IOException {
+                out.write(Header.BITSET);
+                long[] words = value.toLongArray();
+                ElsaUtil.packInt(out, words.length);
+                for (long word : words)
+                    out.writeLong(word);
+            }
+        });
+
+        ser.put(Optional.class, new Serializer<Optional>(){
+            @Override
+            public void serialize(DataOutput out, Optional value, ElsaStack objectStack) throws IOException {
+                if(!value.isPresent()){
+                    out.write(Header.OPTIONAL_EMPTY);
+                    return;
+                }
+                out.write(Header.OPTIONAL);
+                objectStack.stackPush(value.get());
+            }
+        });
+
+        ser.put(AtomicReference.class, new Serializer<AtomicReference>(){
+            @Override
+            public void serialize(DataOutput out, AtomicReference value, ElsaStack objectStack) throws IOException {
+                out.write(Header.ATOMIC_REFERENCE);
+                objectStack.stackPush(value.get());
+            }
+        });
+
+        ser.put(AtomicInteger.class, new Serializer<AtomicInteger>(){
+            @Override
+            public void serialize(DataOutput out, AtomicInteger value, ElsaStack objectStack) throws IOException {
+                out.write(Header.ATOMIC_INTEGER);
+                ElsaUtil.packLongSigned(out, value.get());
+            }
+        });
+
+        ser.put(AtomicLong.class, new Serializer<AtomicLong>(){
+            @Override
+            public void serialize(DataOutput out, AtomicLong value, ElsaStack objectStack) throws IOException {
+                out.write(Header.ATOMIC_LONG);
+                ElsaUtil.packLongSigned(out, value.get());
+            }
+        });
+
+        ser.put(LongAdder.class, new Serializer<LongAdder>(){
+            @Override
+            public void serialize(DataOutput out, LongAdder value, ElsaStack objectStack) throws IOException {
+                out.write(Header.LONG_ADDER);
+                ElsaUtil.packLongSigned(out, value.sum());
+            }
+        });
+
+        initWrappers();
+
+        ser.put(Instant.class, new Serializer<Instant>(){
+            @Override
+            public void serialize(DataOutput out, Instant value, ElsaStack objectStack) throws IOException {
+                out.write(Header.INSTANT);
+                ElsaUtil.packLongSigned(out, value.getEpochSecond());
+                ElsaUtil.packInt(out, value.getNano());
+            }
+        });
+
+        ser.put(LocalDate.class, new Serializer<LocalDate>(){
+            @Override
+            public void serialize(DataOutput out, LocalDate value, ElsaStack objectStack) throws IOException {
+                out.write(Header.LOCAL_DATE);
+                ElsaUtil.packLongSigned(out, value.toEpochDay());
+            }
+        });
+
+        ser.put(LocalTime.class, new Serializer<LocalTime>(){
+            @Override
+            public void serialize(DataOutput out, LocalTime value, ElsaStack objectStack) throws IOException {
+                out.write(Header.LOCAL_TIME);
+                ElsaUtil.packLong(out, value.toNanoOfDay());
+            }
+        });
+
+        ser.put(LocalDateTime.class, new Serializer<LocalDateTime>(){
+            @Override
+            public void serialize(DataOutput out, LocalDateTime value, ElsaStack objectStack) throws IOException {
+                out.write(Header.LOCAL_DATE_TIME);
+                writeLocalDateTime(out, value);
+            }
+        });
+
+        ser.put(OffsetDateTime.class, new Serializer<OffsetDateTime>(){
+            @Override
+            public void serialize(DataOutput out, OffsetDateTime value, ElsaStack objectStack) throws IOException {
+                out.write(Header.OFFSET_DATE_TIME);
+                writeLocalDateTime(out, value.toLocalDateTime());
+                ElsaUtil.packLongSigned(out, value.getOffset().getTotalSeconds());
+            }
+        });
+
+        ser.put(ZonedDateTime.class, new Serializer<ZonedDateTime>(){
+            @Override
+            public void serialize(DataOutput out, ZonedDateTime value, ElsaStack objectStack) throws IOException {
+                out.write(Header.ZONED_DATE_TIME);
+                writeLocalDateTime(out, value.toLocalDateTime());
+                //offset is needed to resolve overlap at daylight saving change
+                ElsaUtil.packLongSigned(out, value.getOffset().getTotalSeconds());
+                out.writeUTF(value.getZone().getId());
+            }
+        });
+
+        ser.put(Duration.class, new Serializer<Duration>(){
+            @Override
+            public void serialize(DataOutput out, Duration value, ElsaStack objectStack) throws IOException {
+                out.write(Header.DURATION);
+                ElsaUtil.packLongSigned(out, value.getSeconds());
+                ElsaUtil.packInt(out, value.getNano());
+            }
+        });
+
+        Serializer<ZoneId> serZoneId = new Serializer<ZoneId>(){
+            @Override
+            public void serialize(DataOutput out, ZoneId value, ElsaStack objectStack) throws IOException {
+                out.write(Header.ZONE_ID);
+                out.writeUTF(value.getId());
+            }
+        };
+        ser.put(ZoneOffset.class, serZoneId);
+        //region based zone is package private class
+        ser.put(ZoneId.of("UTC").getClass(), serZoneId);
+
         //TODO object stack handling is probably all broken. write paranoid tests!!!
         //TODO write automated test to check if static classes inside BTreeKeySer.. .and other can be serialized
     }
 
+    /*
+     * Kinds of {@link Header#COLLECTION_WRAPPER}.
+     * Empty, singleton, immutable and {@code Arrays.asList()} collections are rebuilt from their elements,
+     * unmodifiable and synchronized wrappers are rebuilt by factory method around deserialized wrapped collection.
+     */
+    protected static final int WRAPPER_EMPTY_LIST = 0;
+    protected static final int WRAPPER_EMPTY_SET = 1;
+    protected static final int WRAPPER_EMPTY_MAP = 2;
+    protected static final int WRAPPER_SINGLETON_LIST = 3;
+    protected static final int WRAPPER_SINGLETON_SET = 4;
+    protected static final int WRAPPER_SINGLETON_MAP = 5;
+    protected static final int WRAPPER_UNMODIFIABLE_COLLECTION = 6;
+    protected static final int WRAPPER_UNMODIFIABLE_LIST = 7;
+    protected static final int WRAPPER_UNMODIFIABLE_SET = 8;
+    protected static final int WRAPPER_UNMODIFIABLE_SORTED_SET = 9;
+    protected static final int WRAPPER_UNMODIFIABLE_NAVIGABLE_SET = 10;
+    protected static final int WRAPPER_UNMODIFIABLE_MAP = 11;
+    protected static final int WRAPPER_UNMODIFIABLE_SORTED_MAP = 12;
+    protected static final int WRAPPER_UNMODIFIABLE_NAVIGABLE_MAP = 13;
+    protected static final int WRAPPER_SYNCHRONIZED_COLLECTION = 14;
+    protected static final int WRAPPER_SYNCHRONIZED_LIST = 15;
+    protected static final int WRAPPER_SYNCHRONIZED_SET = 16;
+    protected static final int WRAPPER_SYNCHRONIZED_SORTED_SET = 17;
+    protected static final int WRAPPER_SYNCHRONIZED_NAVIGABLE_SET = 18;
+    protected static final int WRAPPER_SYNCHRONIZED_MAP = 19;
+    protected static final int WRAPPER_SYNCHRONIZED_SORTED_MAP = 20;
+    protected static final int WRAPPER_SYNCHRONIZED_NAVIGABLE_MAP = 21;
+    protected static final int WRAPPER_ARRAYS_AS_LIST = 22;
+    /** {@code List.of()}, {@code Set.of()} and {@code Map.of()} from Java 9 */
+    protected static final int WRAPPER_IMMUTABLE_LIST = 23;
+    protected static final int WRAPPER_IMMUTABLE_SET = 24;
+    protected static final int WRAPPER_IMMUTABLE_MAP = 25;
+    /** wrappers around list without random access, such as {@code LinkedList} */
+    protected static final int WRAPPER_UNMODIFIABLE_SEQUENTIAL_LIST = 26;
+    protected static final int WRAPPER_SYNCHRONIZED_SEQUENTIAL_LIST = 27;
+
+    /** Java 9 factory methods, null on Java 8 */
+    private static final java.lang.reflect.Method LIST_OF = immutableFactory(List.class, "of", Object[].class);
+    private static final java.lang.reflect.Method SET_OF = immutableFactory(Set.class, "of", Object[].class);
+    private static final java.lang.reflect.Method MAP_OF_ENTRIES = immutableFactory(Map.class, "ofEntries", Map.Entry[].class);
+
+    private static java.lang.reflect.Method immutableFactory(Class<?> clazz, String name, Class<?> param){
+        try {
+            return clazz.getMethod(name, param);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invokeFactory(java.lang.reflect.Method factory, Object[] args){
+        try {
+            return factory.invoke(null, (Object) args);
+        } catch (IllegalAccessException e) {
+            throw new ElsaException(e);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new ElsaException(e);
+        }
+    }
+
+    private static Map.Entry[] entries(Object[] keys, Object[] values){
+        Map.Entry[] ret = new Map.Entry[keys.length];
+        for(int i=0;i<keys.length;i++)
+            ret[i] = new AbstractMap.SimpleImmutableEntry<Object, Object>(keys[i], values[i]);
+        return ret;
+    }
+
+    /** registers serializers for classes created by wrapper and factory methods, those classes are private */
+    protected void initWrappers(){
+        wrapper(Collections.emptyList(), WRAPPER_EMPTY_LIST);
+        wrapper(Collections.emptySet(), WRAPPER_EMPTY_SET);
+        wrapper(Collections.emptyMap(), WRAPPER_EMPTY_MAP);
+        wrapper(Collections.singletonList(1), WRAPPER_SINGLETON_LIST);
+        wrapper(Collections.singleton(1), WRAPPER_SINGLETON_SET);
+        wrapper(Collections.singletonMap(1, 1), WRAPPER_SINGLETON_MAP);
+
+        wrapper(Collections.unmodifiableCollection(new ArrayList()), WRAPPER_UNMODIFIABLE_COLLECTION);
+        wrapper(Collections.unmodifiableList(new ArrayList()), WRAPPER_UNMODIFIABLE_LIST);
+        wrapper(Collections.unmodifiableList(new LinkedList()), WRAPPER_UNMODIFIABLE_SEQUENTIAL_LIST);
+        wrapper(Collections.unmodifiableSet(new HashSet()), WRAPPER_UNMODIFIABLE_SET);
+        wrapper(Collections.unmodifiableSortedSet(new TreeSet()), WRAPPER_UNMODIFIABLE_SORTED_SET);
+        wrapper(Collections.unmodifiableNavigableSet(new TreeSet()), WRAPPER_UNMODIFIABLE_NAVIGABLE_SET);
+        wrapper(Collections.unmodifiableMap(new HashMap()), WRAPPER_UNMODIFIABLE_MAP);
+        wrapper(Collections.unmodifiableSortedMap(new TreeMap()), WRAPPER_UNMODIFIABLE_SORTED_MAP);
+        wrapper(Collections.unmodifiableNavigableMap(new TreeMap()), WRAPPER_UNMODIFIABLE_NAVIGABLE_MAP);
+
+        wrapper(Collections.synchronizedCollection(new ArrayList()), WRAPPER_SYNCHRONIZED_COLLECTION);
+        wrapper(Collections.synchronizedList(new ArrayList()), WRAPPER_SYNCHRONIZED_LIST);
+        wrapper(Collections.synchronizedList(new LinkedList()), WRAPPER_SYNCHRONIZED_SEQUENTIAL_LIST);
+        wrapper(Collections.synchronizedSet(new HashSet()), WRAPPER_SYNCHRONIZED_SET);
+        wrapper(Collections.synchronizedSortedSet(new TreeSet()), WRAPPER_SYNCHRONIZED_SORTED_SET);
+        wrapper(Collections.synchronizedNavigableSet(new TreeSet()), WRAPPER_SYNCHRONIZED_NAVIGABLE_SET);
+        wrapper(Collections.synchronizedMap(new HashMap()), WRAPPER_SYNCHRONIZED_MAP);
+        wrapper(Collections.synchronizedSortedMap(new TreeMap()), WRAPPER_SYNCHRONIZED_SORTED_MAP);
+        wrapper(Collections.synchronizedNavigableMap(new TreeMap()), WRAPPER_SYNCHRONIZED_NAVIGABLE_MAP);
+
+        wrapper(Arrays.asList(), WRAPPER_ARRAYS_AS_LIST);
+
+        if(LIST_OF!=null){
+            //implementation class depends on size
+            for(Object[] items: new Object[][]{{}, {1}, {1, 2}, {1, 2, 3}}){
+                wrapper(invokeFactory(LIST_OF, items), WRAPPER_IMMUTABLE_LIST);
+                wrapper(invokeFactory(SET_OF, items), WRAPPER_IMMUTABLE_SET);
+                wrapper(invokeFactory(MAP_OF_ENTRIES, entries(items, items)), WRAPPER_IMMUTABLE_MAP);
+            }
+        }
+    }
+
+    private void wrapper(Object sample, int kind){
+        java.lang.reflect.Field wrapped = null;
+        if(wrapperIsView(kind)){
+            wrapped = wrappedField(sample.getClass());
+            //wrapped collection is not accessible, wrapper is left to other serializers
+            if(wrapped==null)
+                return;
+        }
+        ser.put(sample.getClass(), new WrapperSerializer(kind, wrapped));
+    }
+
+    /** finds field with collection wrapped by unmodifiable or synchronized wrapper, null if it is not accessible */
+    private static java.lang.reflect.Field wrappedField(Class<?> clazz){
+        for(Class<?> c = clazz; c!=null && c!=Object.class; c = c.getSuperclass()){
+            for(String name:new String[]{"c", "m"}) {
+                try {
+                    java.lang.reflect.Field f = c.getDeclaredField(name);
+                    if(!Collection.class.isAssignableFrom(f.getType()) && !Map.class.isAssignableFrom(f.getType()))
+                        continue;
+                    f.setAccessible(true);
+                    return f;
+                } catch (NoSuchFieldException e) {
+                    //try next name or superclass
+                } catch (RuntimeException e) {
+                    //java.util is not open to this module
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** unmodifiable and synchronized wrappers, which are written with wrapped collection */
+    private static boolean wrapperIsView(int kind){
+        return (kind>=WRAPPER_UNMODIFIABLE_COLLECTION && kind<=WRAPPER_SYNCHRONIZED_NAVIGABLE_MAP)
+                || kind==WRAPPER_UNMODIFIABLE_SEQUENTIAL_LIST || kind==WRAPPER_SYNCHRONIZED_SEQUENTIAL_LIST;
+    }
+
+    private static boolean wrapperIsSynchronized(int kind){
+        return (kind>=WRAPPER_SYNCHRONIZED_COLLECTION && kind<=WRAPPER_SYNCHRONIZED_NAVIGABLE_MAP)
+                || kind==WRAPPER_SYNCHRONIZED_SEQUENTIAL_LIST;
+    }
+
+    private static boolean wrapperIsMap(int kind){
+        switch (kind){
+            case WRAPPER_EMPTY_MAP:
+            case WRAPPER_SINGLETON_MAP:
+            case WRAPPER_IMMUTABLE_MAP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes wrapper kind and its content. Empty, singleton, {@code Arrays.asList()} and immutable collections
+     * are written as elements, empty and singleton collections have fixed size, so it is not written.
+     * Unmodifiable and synchronized wrappers write wrapped collection as subelement,
+     * so its type, comparator and identity are preserved.
+     */
+    protected final class WrapperSerializer implements Serializer<Object>{
+
+        private final int kind;
+        /** field with wrapped collection, only for unmodifiable and synchronized wrappers */
+        private final java.lang.reflect.Field wrapped;
+
+        WrapperSerializer(int kind, java.lang.reflect.Field wrapped) {
+            this.kind = kind;
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public void serialize(DataOutput out, Object value, ElsaStack objectStack) throws IOException {
+            out.write(Header.COLLECTION_WRAPPER);
+            if(wrapped!=null){
+                ElsaUtil.packInt(out, kind);
+                Object inner;
+                try {
+                    inner = wrapped.get(value);
+                } catch (IllegalAccessException e) {
+                    throw new ElsaException(e);
+                }
+                if(wrapperIsSynchronized(kind)){
+                    //synchronized wrapper uses itself as lock, wrapped collection is written while lock is held
+                    synchronized (value){
+                        serializeNested(out, inner, objectStack);
+                    }
+                }else{
+                    objectStack.stackPush(inner);
+                }
+                return;
+            }
+
+            if(kind==WRAPPER_IMMUTABLE_LIST){
+                Object[] items = ((Collection) value).toArray();
+                if(Arrays.asList(items).contains(null)){
+                    //Stream.toList() returns immutable list with nulls, which List.of() does not accept
+                    ElsaUtil.packInt(out, WRAPPER_UNMODIFIABLE_LIST);
+                    objectStack.stackPush(new ArrayList<Object>(Arrays.asList(items)));
+                    return;
+                }
+            }
+            ElsaUtil.packInt(out, kind);
+            if(kind<=WRAPPER_EMPTY_MAP)
+                return;
+            if(kind==WRAPPER_SINGLETON_MAP){
+                Map.Entry e = ((Map<?,?>) value).entrySet().iterator().next();
+                objectStack.stackPush(e.getKey());
+                objectStack.stackPush(e.getValue());
+                return;
+            }
+            if(kind==WRAPPER_SINGLETON_LIST || kind==WRAPPER_SINGLETON_SET){
+                objectStack.stackPush(((Collection) value).iterator().next());
+                return;
+            }
+
+            List<Object> items = wrapperIsMap(kind)
+                    ? mapSnapshot((Map) value)
+                    : Arrays.asList(((Collection) value).toArray());
+            ElsaUtil.packInt(out, wrapperIsMap(kind) ? items.size()/2 : items.size());
+            objectStack.stackPushIter(items);
+        }
+    }
+
+    /**
+     * Wrapper is created after its content is read, so reference from content back to wrapper is restored as {@code null}.
+     * Unmodifiable and synchronized wrappers have wrapped collection as single element.
+     */
+    private DeserFrame openCollectionWrapper(DataInput is, final ElsaStack objectStack) throws IOException {
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+
+        final int kind = ElsaUtil.unpackInt(is);
+        if(wrapperIsView(kind)){
+            return new DeserFrame(1){
+                Object ret;
+
+                @Override
+                protected void add(Object o) {
+                    ret = wrapView(kind, o);
+                    objectStack.setInstance(stackPos, ret);
+                }
+
+                @Override
+                protected Object finish() {
+                    return ret;
+                }
+            };
+        }
+
+        final int size;
+        if(kind<=WRAPPER_EMPTY_MAP)
+            size = 0;
+        else if(kind==WRAPPER_SINGLETON_LIST || kind==WRAPPER_SINGLETON_SET || kind==WRAPPER_SINGLETON_MAP)
+            size = 1;
+        else
+            size = ElsaUtil.unpackInt(is);
+        final boolean map = wrapperIsMap(kind);
+
+        return new DeserFrame(map ? size*2 : size){
+            final Object[] keys = new Object[size];
+            final Object[] values = map ? new Object[size] : null;
+            int pos = 0;
+
+            @Override
+            protected void add(Object o) {
+                if(!map){
+                    keys[pos++] = o;
+                }else if((remaining & 1) != 0){
+                    //remaining count is odd after key was read
+                    keys[pos] = o;
+                }else{
+                    values[pos++] = o;
+                }
+            }
+
+            @Override
+            protected Object finish() {
+                Object ret = map
+                        ? wrapMap(kind, keys, values)
+                        : wrapCollection(kind, keys);
+                objectStack.setInstance(stackPos, ret);
+                return ret;
+            }
+        };
+    }
+
+    private static Object wrapCollection(int kind, Object[] items) {
+        switch (kind){
+            case WRAPPER_EMPTY_LIST:
+                return Collections.emptyList();
+            case WRAPPER_EMPTY_SET:
+                return Collections.emptySet();
+            case WRAPPER_SINGLETON_LIST:
+                return Collections.singletonList(items[0]);
+            case WRAPPER_SINGLETON_SET:
+                return Collections.singleton(items[0]);
+            case WRAPPER_ARRAYS_AS_LIST:
+                return Arrays.asList(items);
+            case WRAPPER_IMMUTABLE_LIST:
+                //data written on newer Java are readable with unmodifiable wrapper
+                return LIST_OF!=null ? invokeFactory(LIST_OF, items) : Collections.unmodifiableList(new ArrayList<Object>(Arrays.asList(items)));
+            case WRAPPER_IMMUTABLE_SET:
+                return SET_OF!=null ? invokeFactory(SET_OF, items) : Collections.unmodifiableSet(new LinkedHashSet<Object>(Arrays.asList(items)));
+            default:
+                throw new ElsaException("Unknown collection wrapper: "+kind);
+        }
+    }
+
+    private static Object wrapMap(int kind, Object[] keys, Object[] values) {
+        switch (kind){
+            case WRAPPER_EMPTY_MAP:
+                return Collections.emptyMap();
+            case WRAPPER_SINGLETON_MAP:
+                return Collections.singletonMap(keys[0], values[0]);
+            case WRAPPER_IMMUTABLE_MAP:
+                if(MAP_OF_ENTRIES!=null)
+                    return invokeFactory(MAP_OF_ENTRIES, entries(keys, values));
+                Map<Object,Object> m = new LinkedHashMap<Object, Object>(keys.length);
+                for (int i = 0; i < keys.length; i++)
+                    m.put(keys[i], values[i]);
+                return Collections.unmodifiableMap(m);
+            default:
+                throw new ElsaException("Unknown collection wrapper: "+kind);
+        }
+    }
+
+    /** recreates unmodifiable or synchronized wrapper around deserialized collection */
+    private static Object wrapView(int kind, Object inner) {
+        if(inner==null)
+            throw new ElsaException("Cyclic reference in collection wrapper");
+        switch (kind){
+            case WRAPPER_UNMODIFIABLE_COLLECTION:
+                return Collections.unmodifiableCollection((Collection<?>) inner);
+            case WRAPPER_UNMODIFIABLE_LIST:
+            case WRAPPER_UNMODIFIABLE_SEQUENTIAL_LIST:
+                return Collections.unmodifiableList((List<?>) inner);
+            case WRAPPER_UNMODIFIABLE_SET:
+                return Collections.unmodifiableSet((Set<?>) inner);
+            case WRAPPER_UNMODIFIABLE_SORTED_SET:
+                return Collections.unmodifiableSortedSet((SortedSet) inner);
+            case WRAPPER_UNMODIFIABLE_NAVIGABLE_SET:
+                return Collections.unmodifiableNavigableSet((NavigableSet) inner);
+            case WRAPPER_UNMODIFIABLE_MAP:
+                return Collections.unmodifiableMap((Map<?,?>) inner);
+            case WRAPPER_UNMODIFIABLE_SORTED_MAP:
+                return Collections.unmodifiableSortedMap((SortedMap) inner);
+            case WRAPPER_UNMODIFIABLE_NAVIGABLE_MAP:
+                return Collections.unmodifiableNavigableMap((NavigableMap) inner);
+            case WRAPPER_SYNCHRONIZED_COLLECTION:
+                return Collections.synchronizedCollection((Collection<?>) inner);
+            case WRAPPER_SYNCHRONIZED_LIST:
+            case WRAPPER_SYNCHRONIZED_SEQUENTIAL_LIST:
+                return Collections.synchronizedList((List<?>) inner);
+            case WRAPPER_SYNCHRONIZED_SET:
+                return Collections.synchronizedSet((Set<?>) inner);
+            case WRAPPER_SYNCHRONIZED_SORTED_SET:
+                return Collections.synchronizedSortedSet((SortedSet) inner);
+            case WRAPPER_SYNCHRONIZED_NAVIGABLE_SET:
+                return Collections.synchronizedNavigableSet((NavigableSet) inner);
+            case WRAPPER_SYNCHRONIZED_MAP:
+                return Collections.synchronizedMap((Map<?,?>) inner);
+            case WRAPPER_SYNCHRONIZED_SORTED_MAP:
+                return Collections.synchronizedSortedMap((SortedMap) inner);
+            case WRAPPER_SYNCHRONIZED_NAVIGABLE_MAP:
+                return Collections.synchronizedNavigableMap((NavigableMap) inner);
+            default:
+                throw new ElsaException("Unknown collection wrapper: "+kind);
+        }
+    }
+
+    /**
+     * Concurrent map might be modified while it is serialized, so size and entries are taken from single iteration.
+     *
+     * @param map map to copy
+     * @return keys and values in single list
+     */
+    protected static List<Object> mapSnapshot(Map<?,?> map){
+        List<Object> entries = new ArrayList<Object>(map.size()*2+8);
+        for(Map.Entry<?,?> e:map.entrySet()){
+            entries.add(e.getKey());
+            entries.add(e.getValue());
+        }
+        return entries;
+    }
+
+    protected static void writeLocalDateTime(DataOutput out, LocalDateTime value) throws IOException {
+        ElsaUtil.packLongSigned(out, value.toLocalDate().toEpochDay());
+        ElsaUtil.packLong(out, value.toLocalTime().toNanoOfDay());
+    }
+
+    protected static LocalDateTime readLocalDateTime(DataInput in) throws IOException {
+        return LocalDateTime.of(
+                LocalDate.ofEpochDay(ElsaUtil.unpackLongSigned(in)),
+                LocalTime.ofNanoOfDay(ElsaUtil.unpackLong(in)));
+    }
+
     public void serializeObjectArray(DataOutput out, Object[] b, ElsaStack objectStack) throws IOException {
         boolean allNull = true;
         //check for all null
@@ -473,19 +1272,19 @@ public class ElsaSerializerBase implements ElsaSerializer{
         }
 
         if(allNull){
-            out.write(Header.ARRAY_OBJECT_ALL_NULL);
+            out.write(Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF);
             ElsaUtil.packInt(out, b.length);
 
             // Write class for components
             Class<?> componentType = b.getClass().getComponentType();
-            serializeClass(out, componentType);
+            serializeClassRef(out, componentType, objectStack);
         } else {
-            out.write(Header.ARRAY_OBJECT);
+            out.write(Header.ARRAY_OBJECT_CLASS_REF);
             ElsaUtil.packInt(out, b.length);
 
             // Write class for components
             Class<?> componentType = b.getClass().getComponentType();
-            serializeClass(out, componentType);
+            serializeClassRef(out, componentType, objectStack);
             for(Object a:b){
                 objectStack.stackPush(a);
             }
@@ -874,6 +1673,12 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 }
             }
         };
+        headerDeser[Header.CLASS_REF] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return deserializeClassRef(in, objectStack);
+            }
+        };
         headerDeser[Header.DATE] = new Deserializer() {
             @Override
             public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
@@ -886,6 +1691,58 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 return new UUID(in.readLong(), in.readLong());
             }
         };
+        headerDeser[Header.INSTANT] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return Instant.ofEpochSecond(ElsaUtil.unpackLongSigned(in), ElsaUtil.unpackInt(in));
+            }
+        };
+        headerDeser[Header.LOCAL_DATE] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return LocalDate.ofEpochDay(ElsaUtil.unpackLongSigned(in));
+            }
+        };
+        headerDeser[Header.LOCAL_TIME] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return LocalTime.ofNanoOfDay(ElsaUtil.unpackLong(in));
+            }
+        };
+        headerDeser[Header.LOCAL_DATE_TIME] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return readLocalDateTime(in);
+            }
+        };
+        headerDeser[Header.OFFSET_DATE_TIME] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                LocalDateTime dateTime = readLocalDateTime(in);
+                return OffsetDateTime.of(dateTime, ZoneOffset.ofTotalSeconds((int) ElsaUtil.unpackLongSigned(in)));
+            }
+        };
+        headerDeser[Header.ZONED_DATE_TIME] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                LocalDateTime dateTime = readLocalDateTime(in);
+                ZoneOffset offset = ZoneOffset.ofTotalSeconds((int) ElsaUtil.unpackLongSigned(in));
+                ZoneId zone = ZoneId.of(in.readUTF());
+                return ZonedDateTime.ofLocal(dateTime, zone, offset);
+            }
+        };
+        headerDeser[Header.DURATION] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return Duration.ofSeconds(ElsaUtil.unpackLongSigned(in), ElsaUtil.unpackInt(in));
+            }
+        };
+        headerDeser[Header.ZONE_ID] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return ZoneId.of(in.readUTF());
+            }
+        };
 
         headerDeser[Header.ARRAY_OBJECT_ALL_NULL] = new Deserializer(){
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
@@ -894,6 +1751,13 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 return java.lang.reflect.Array.newInstance(clazz, size);
             }
         };
+        headerDeser[Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF] = new Deserializer(){
+            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                int size = ElsaUtil.unpackInt(in);
+                Class clazz = deserializeClassRef(in, objectStack);
+                return java.lang.reflect.Array.newInstance(clazz, size);
+            }
+        };
         headerDeser[Header.ARRAY_OBJECT_NO_REFS] = new Deserializer(){
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
                 //TODO serializatio code for this does not exist, add it in future
@@ -917,155 +1781,549 @@ public class ElsaSerializerBase implements ElsaSerializer{
             }
         };
 
-        headerDeser[Header.ARRAYLIST] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeArrayList(in, objectStack);
+        headerDeser[Header.ARRAYLIST] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openArrayList(in, objectStack);
             }
+        };
 
-            @Override public boolean needsObjectStack() {
-                return true;
+        for(final int chunkedHeader:new int[]{Header.ARRAYLIST_CHUNKED, Header.ARRAY_OBJECT_CHUNKED, Header.HASHMAP_CHUNKED}) {
+            headerDeser[chunkedHeader] = new Deserializer() {
+                @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                    return deserializeChunked(chunkedHeader, in, objectStack);
+                }
+                @Override public boolean needsObjectStack() {
+                    return true;
+                }
+            };
+        }
+
+        headerDeser[Header.ARRAY_OBJECT] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openArrayObject(in, objectStack, false, null);
             }
         };
 
-        headerDeser[Header.ARRAY_OBJECT] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeArrayObject(in, objectStack);
-            }
-            @Override public boolean needsObjectStack() {
-                return true;
+        headerDeser[Header.ARRAY_OBJECT_CLASS_REF] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openArrayObject(in, objectStack, true, null);
             }
         };
 
-        headerDeser[Header.LINKEDLIST] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedList(in, objectStack);
+        headerDeser[Header.LINKEDLIST] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openLinkedList(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+
+        headerDeser[Header.TREESET] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openTreeSet(in, objectStack);
             }
         };
 
-        headerDeser[Header.TREESET] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeTreeSet(in, objectStack);
+        headerDeser[Header.HASHSET] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openHashSet(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+
+        headerDeser[Header.LINKEDHASHSET] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openLinkedHashSet(in, objectStack);
             }
         };
 
-        headerDeser[Header.HASHSET] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeHashSet(in, objectStack);
+        headerDeser[Header.CONCURRENT_HASHMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openConcurrentHashMap(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+        headerDeser[Header.CONCURRENT_SKIPLIST_MAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openConcurrentSkipListMap(in, objectStack);
             }
         };
-
-        headerDeser[Header.LINKEDHASHSET] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedHashSet(in, objectStack);
+        headerDeser[Header.CONCURRENT_SKIPLIST_SET] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openConcurrentSkipListSet(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+        headerDeser[Header.COPY_ON_WRITE_ARRAYLIST] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openCopyOnWriteArrayList(in, objectStack);
             }
         };
-
-        headerDeser[Header.TREEMAP] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeTreeMap(in, objectStack);
+        headerDeser[Header.ARRAY_DEQUE] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openArrayDeque(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+        headerDeser[Header.PRIORITY_QUEUE] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openPriorityQueue(in, objectStack);
             }
         };
-
-        headerDeser[Header.HASHMAP] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeHashMap(in, objectStack);
+        headerDeser[Header.IDENTITY_HASHMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openIdentityHashMap(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+        headerDeser[Header.WEAK_HASHMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openWeakHashMap(in, objectStack);
+            }
+        };
+        headerDeser[Header.BITSET] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                long[] words = new long[ElsaUtil.unpackInt(in)];
+                for (int i = 0; i < words.length; i++)
+                    words[i] = in.readLong();
+                return BitSet.valueOf(words);
+            }
+        };
+        headerDeser[Header.OPTIONAL_EMPTY] = new DeserSingleton(Optional.empty());
+        headerDeser[Header.OPTIONAL] = new ContainerDeserializer() {
+            @Override
+            protected DeserFrame open(DataInput in, final ElsaStack objectStack) throws IOException {
+                //Optional is created after its value, reserve its position on object stack
+                final int stackPos = objectStack.getSize();
+                objectStack.add(null);
+                return new DeserFrame(1) {
+                    Optional ret;
+
+                    @Override
+                    protected void add(Object o) {
+                        ret = Optional.of(o);
+                        objectStack.setInstance(stackPos, ret);
+                    }
+
+                    @Override
+                    protected Object finish() {
+                        return ret;
+                    }
+                };
+            }
+        };
+        headerDeser[Header.ATOMIC_REFERENCE] = new ContainerDeserializer() {
+            @Override
+            protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                final AtomicReference ret = new AtomicReference();
+                objectStack.add(ret);
+                return new DeserFrame(1) {
+                    @Override
+                    protected void add(Object o) {
+                        ret.set(o);
+                    }
+
+                    @Override
+                    protected Object finish() {
+                        return ret;
+                    }
+                };
+            }
+        };
+        headerDeser[Header.ATOMIC_INTEGER] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return new AtomicInteger((int) ElsaUtil.unpackLongSigned(in));
+            }
+        };
+        headerDeser[Header.ATOMIC_LONG] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return new AtomicLong(ElsaUtil.unpackLongSigned(in));
+            }
+        };
+        headerDeser[Header.LONG_ADDER] = new Deserializer() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                LongAdder ret = new LongAdder();
+                ret.add(ElsaUtil.unpackLongSigned(in));
+                return ret;
+            }
+        };
+        headerDeser[Header.COLLECTION_WRAPPER] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openCollectionWrapper(in, objectStack);
+            }
+        };
+        headerDeser[Header.TREEMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openTreeMap(in, objectStack);
             }
         };
 
-        headerDeser[Header.LINKEDHASHMAP] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedHashMap(in, objectStack);
+        headerDeser[Header.HASHMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openHashMap(in, objectStack);
             }
-            @Override public boolean needsObjectStack() {
-                return true;
+        };
+
+        headerDeser[Header.LINKEDHASHMAP] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openLinkedHashMap(in, objectStack);
             }
         };
 
-        headerDeser[Header.PROPERTIES] = new Deserializer() {
+        headerDeser[Header.PROPERTIES] = new ContainerDeserializer() {
+            @Override protected DeserFrame open(DataInput in, ElsaStack objectStack) throws IOException {
+                return openProperties(in, objectStack);
+            }
+        };
+
+
+        headerDeser[Header.SINGLETON] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeProperties(in, objectStack);
+                return deserializeSingleton(in,objectStack);
             }
             @Override public boolean needsObjectStack() {
-                return true;
+                return false;
+            }
+        };
+
+        headerDeser[Header.USER_DESER] = new Deserializer(){
+
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                int userHeader = ElsaUtil.unpackInt(in);
+                if(userHeader>userDeser.length || userDeser[userHeader]==null)
+                    throw new ElsaException("No user deserializer defined for user header "+userHeader);
+                return userDeser[userHeader].deserialize(in, objectStack);
             }
+
         };
 
 
-        headerDeser[Header.SINGLETON] = new Deserializer() {
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeSingleton(in,objectStack);
+        headerDeser[Header.INT_MF3] = new DeserInt(3,true);
+        headerDeser[ Header.INT_F3] = new DeserInt(3,false);
+        headerDeser[Header.INT_MF2] = new DeserInt(2,true);
+        headerDeser[ Header.INT_F2] = new DeserInt(2,false);
+        headerDeser[Header.INT_MF1] = new DeserInt(1,true);
+        headerDeser[ Header.INT_F1] = new DeserInt(1,false);
+
+        headerDeser[Header.LONG_MF7] = new DeserLong(7,true);
+        headerDeser[ Header.LONG_F7] = new DeserLong(7,false);
+        headerDeser[Header.LONG_MF6] = new DeserLong(6,true);
+        headerDeser[ Header.LONG_F6] = new DeserLong(6,false);
+        headerDeser[Header.LONG_MF5] = new DeserLong(5,true);
+        headerDeser[ Header.LONG_F5] = new DeserLong(5,false);
+        headerDeser[Header.LONG_MF4] = new DeserLong(4,true);
+        headerDeser[ Header.LONG_F4] = new DeserLong(4,false);
+        headerDeser[Header.LONG_MF3] = new DeserLong(3,true);
+        headerDeser[ Header.LONG_F3] = new DeserLong(3,false);
+        headerDeser[Header.LONG_MF2] = new DeserLong(2,true);
+        headerDeser[ Header.LONG_F2] = new DeserLong(2,false);
+        headerDeser[Header.LONG_MF1] = new DeserLong(1,true);
+        headerDeser[ Header.LONG_F1] = new DeserLong(1,false);
+
+    }
+
+
+    @Override
+    public void serialize(final DataOutput output, Object obj) throws IOException {
+        if(parallelPool!=null && serializeChunked(output, obj))
+            return;
+
+        ElsaStack stack = borrowElsaStack();
+        try {
+            while (true) {
+                serialize(output, obj, stack);
+                stack.stackFinish(); //rotate new objects on stack
+                if (stack.stackEmpty())
+                    return;
+                obj = stack.stackPop();
+
+            }
+        }finally {
+            releaseElsaStack(stack);
+        }
+    }
+
+    /**
+     * Serializes large top-level {@code ArrayList}, {@code Object[]} or {@code HashMap} in chunks, using {@link #parallelPool}.
+     * Each chunk is an independent stream with its own object stack, so chunks can be serialized and deserialized concurrently.
+     * References between chunks are not preserved, object shared by two chunks is duplicated.
+     * Collection itself is at first position of each chunk stack, so elements can reference it.
+     *
+     * @param out put binary data here
+     * @param obj object to be serialized
+     * @return false if object is not eligible for chunked serialization and was not written
+     * @throws IOException an exception from underlying stream
+     */
+    protected boolean serializeChunked(DataOutput out, final Object obj) throws IOException {
+        if(obj==null || (singletons.length!=0 && singletonsReverse.containsKey(obj)))
+            return false;
+
+        final Object[] items;
+        final int header;
+        final int step;
+        Class<?> clazz = obj.getClass();
+        if(clazz==ArrayList.class){
+            ArrayList l = (ArrayList) obj;
+            if(l.size()<=parallelChunkSize)
+                return false;
+            header = Header.ARRAYLIST_CHUNKED;
+            items = l.toArray();
+            step = 1;
+        }else if(obj instanceof Object[]){
+            items = (Object[]) obj;
+            if(items.length<=parallelChunkSize)
+                return false;
+            header = Header.ARRAY_OBJECT_CHUNKED;
+            step = 1;
+        }else if(clazz==HashMap.class){
+            Map<?,?> m = (Map) obj;
+            if(m.size()<=parallelChunkSize)
+                return false;
+            header = Header.HASHMAP_CHUNKED;
+            //keys and values are stored in single array
+            items = new Object[m.size()*2];
+            int i = 0;
+            for(Map.Entry e:m.entrySet()){
+                items[i++] = e.getKey();
+                items[i++] = e.getValue();
+            }
+            step = 2;
+        }else{
+            return false;
+        }
+
+        int size = items.length/step;
+        int chunkCount = (size + parallelChunkSize - 1) / parallelChunkSize;
+        out.write(header);
+        ElsaUtil.packInt(out, size);
+        if(header==Header.ARRAY_OBJECT_CHUNKED)
+            serializeClass(out, clazz.getComponentType());
+        ElsaUtil.packInt(out, chunkCount);
+
+        //limit number of encoded chunks waiting in memory
+        int window = parallelPool.getParallelism()*2;
+        ArrayDeque<ForkJoinTask<byte[]>> tasks = new ArrayDeque<ForkJoinTask<byte[]>>();
+        int next = 0;
+        try {
+            while (next < chunkCount || !tasks.isEmpty()) {
+                while (next < chunkCount && tasks.size() < window) {
+                    final int from = next * parallelChunkSize * step;
+                    final int to = Math.min(items.length, from + parallelChunkSize * step);
+                    tasks.add(parallelPool.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            return serializeChunk(obj, items, from, to);
+                        }
+                    }));
+                    next++;
+                }
+                int count = Math.min(parallelChunkSize, size - (next - tasks.size()) * parallelChunkSize);
+                byte[] b = chunkResult(tasks.peek());
+                tasks.poll();
+                ElsaUtil.packInt(out, count);
+                ElsaUtil.packInt(out, b.length);
+                out.write(b);
+            }
+        }finally {
+            for(ForkJoinTask t:tasks)
+                t.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Serializes part of array as independent stream.
+     *
+     * @param root chunked collection, reference to it is written as backward reference
+     * @param items elements of chunked collection
+     * @param from first element of chunk
+     * @param to end of chunk (exclusive)
+     * @return serialized chunk
+     * @throws IOException an exception from underlying stream
+     */
+    protected byte[] serializeChunk(Object root, Object[] items, int from, int to) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        ElsaStack stack = newElsaStack();
+        stack.add(root);
+        for(int i=from; i<to; i++){
+            serializeNested(out, items[i], stack);
+        }
+        return b.toByteArray();
+    }
+
+    protected static <E> E chunkResult(Future<E> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for chunk");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new ElsaException(e);
+        }
+    }
+
+    /**
+     * Reads chunked collection written by {@link #serializeChunked(DataOutput, Object)}.
+     * If {@link #parallelPool} is set, chunks are decoded concurrently.
+     */
+    protected Object deserializeChunked(int header, DataInput in, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(in);
+        final int step = header==Header.HASHMAP_CHUNKED ? 2 : 1;
+        Object[] items = header==Header.ARRAY_OBJECT_CHUNKED
+                ? (Object[]) java.lang.reflect.Array.newInstance(loadClassCachedUnchecked(in.readUTF()), size)
+                : new Object[size*step];
+        //collection is created before its elements, so they can reference it, it is filled after all chunks were read
+        Object root =
+                header==Header.ARRAY_OBJECT_CHUNKED ? items :
+                header==Header.ARRAYLIST_CHUNKED ? new ArrayList<Object>(size) :
+                new HashMap<Object, Object>(size);
+
+        int chunkCount = ElsaUtil.unpackInt(in);
+        int pos = 0;
+        if(parallelPool==null) {
+            for (int i = 0; i < chunkCount; i++) {
+                int count = ElsaUtil.unpackInt(in);
+                //byte size allows to read chunk without decoding
+                ElsaUtil.unpackInt(in);
+                checkChunkRange(items, pos, count * step);
+                deserializeChunk(in, root, items, pos, pos + count * step);
+                pos += count * step;
             }
-            @Override public boolean needsObjectStack() {
-                return false;
+        }else{
+            //chunks are independent, decode them concurrently, each chunk fills its own part of array
+            int window = parallelPool.getParallelism()*2;
+            ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<ForkJoinTask<?>>();
+            try {
+                for (int i = 0; i < chunkCount; i++) {
+                    if(tasks.size()>=window)
+                        chunkResult(tasks.poll());
+                    int count = ElsaUtil.unpackInt(in);
+                    checkChunkRange(items, pos, count * step);
+                    final byte[] b = new byte[ElsaUtil.unpackInt(in)];
+                    in.readFully(b);
+                    tasks.add(parallelPool.submit(chunkDecoder(b, root, items, pos, pos + count * step)));
+                    pos += count * step;
+                }
+                while(!tasks.isEmpty())
+                    chunkResult(tasks.poll());
+            }finally {
+                for(ForkJoinTask t:tasks)
+                    t.cancel(false);
             }
-        };
+        }
+        if(pos!=items.length)
+            throw new ElsaException("Wrong chunked collection size");
+
+        switch (header){
+            case Header.ARRAY_OBJECT_CHUNKED:
+                break;
+            case Header.ARRAYLIST_CHUNKED:
+                ((ArrayList) root).addAll(Arrays.asList(items));
+                break;
+            default:
+                HashMap<Object,Object> m = (HashMap) root;
+                for(int i=0; i<items.length; i+=2)
+                    m.put(items[i], items[i+1]);
+        }
+        return root;
+    }
 
-        headerDeser[Header.USER_DESER] = new Deserializer(){
+    private static void checkChunkRange(Object[] items, int pos, int len){
+        if(len<0 || pos+len>items.length || pos+len<0)
+            throw new ElsaException("Wrong chunked collection size");
+    }
 
+    private Callable<Object> chunkDecoder(final byte[] b, final Object root, final Object[] items, final int from, final int to){
+        return new Callable<Object>() {
             @Override
-            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int userHeader = ElsaUtil.unpackInt(in);
-                if(userHeader>userDeser.length || userDeser[userHeader]==null)
-                    throw new ElsaException("No user deserializer defined for user header "+userHeader);
-                return userDeser[userHeader].deserialize(in, objectStack);
+            public Object call() throws Exception {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+                deserializeChunk(in, root, items, from, to);
+                if(in.available()!=0)
+                    throw new ElsaException("Chunk was not fully read");
+                return null;
             }
-
         };
+    }
 
+    /** deserializes single chunk (independent stream) into part of array, chunked collection is at first position of its stack */
+    protected void deserializeChunk(DataInput in, Object root, Object[] items, int from, int to) throws IOException {
+        ElsaStack stack = newElsaStack();
+        stack.add(root);
+        for(int i=from; i<to; i++){
+            items[i] = deserialize(in, stack);
+        }
+    }
 
-        headerDeser[Header.INT_MF3] = new DeserInt(3,true);
-        headerDeser[ Header.INT_F3] = new DeserInt(3,false);
-        headerDeser[Header.INT_MF2] = new DeserInt(2,true);
-        headerDeser[ Header.INT_F2] = new DeserInt(2,false);
-        headerDeser[Header.INT_MF1] = new DeserInt(1,true);
-        headerDeser[ Header.INT_F1] = new DeserInt(1,false);
+    /** stacks and buffers with more content are not recycled, clearing them would be too expensive */
+    protected static final int RECYCLE_MAX_SIZE = 1024;
+    protected static final int RECYCLE_MAX_BUFFER = 64*1024;
 
-        headerDeser[Header.LONG_MF7] = new DeserLong(7,true);
-        headerDeser[ Header.LONG_F7] = new DeserLong(7,false);
-        headerDeser[Header.LONG_MF6] = new DeserLong(6,true);
-        headerDeser[ Header.LONG_F6] = new DeserLong(6,false);
-        headerDeser[Header.LONG_MF5] = new DeserLong(5,true);
-        headerDeser[ Header.LONG_F5] = new DeserLong(5,false);
-        headerDeser[Header.LONG_MF4] = new DeserLong(4,true);
-        headerDeser[ Header.LONG_F4] = new DeserLong(4,false);
-        headerDeser[Header.LONG_MF3] = new DeserLong(3,true);
-        headerDeser[ Header.LONG_F3] = new DeserLong(3,false);
-        headerDeser[Header.LONG_MF2] = new DeserLong(2,true);
-        headerDeser[ Header.LONG_F2] = new DeserLong(2,false);
-        headerDeser[Header.LONG_MF1] = new DeserLong(1,true);
-        headerDeser[ Header.LONG_F1] = new DeserLong(1,false);
+    /**
+     * Per thread state recycled between calls. Field is set to null while it is used,
+     * so reentrant call (for example from {@code Externalizable}) allocates new instance.
+     */
+    protected static final class Recycled{
+        protected ElsaStack stack;
+        protected CloneBuffer cloneBuffer;
+    }
+
+    protected final ThreadLocal<Recycled> recycled = new ThreadLocal<Recycled>(){
+        @Override
+        protected Recycled initialValue() {
+            return new Recycled();
+        }
+    };
+
+    /**
+     * Returns empty stack for new (de)serialization, it should be returned with {@link #releaseElsaStack(ElsaStack)}.
+     *
+     * @return stack recycled from previous call on this thread, or new stack
+     */
+    protected ElsaStack borrowElsaStack() {
+        Recycled r = recycled.get();
+        ElsaStack stack = r.stack;
+        if(stack==null)
+            return newElsaStack();
+        r.stack = null;
+        return stack;
+    }
 
+    protected void releaseElsaStack(ElsaStack stack) {
+        if(stack.getSize() <= RECYCLE_MAX_SIZE && stack.reset())
+            recycled.get().stack = stack;
     }
 
+    /** reusable buffer for {@link #clone(Object)} */
+    protected static final class CloneBuffer{
+        protected final Out out = new Out();
+        protected final DataOutputStream out2 = new DataOutputStream(out);
+        protected final In in = new In();
+        protected final DataInputStream in2 = new DataInputStream(in);
 
-    @Override
-    public void serialize(final DataOutput output, Object obj) throws IOException {
-        ElsaStack stack = newElsaStack();
-        while (true) {
-            serialize(output, obj, stack);
-            stack.stackFinish(); //rotate new objects on stack
-            if(stack.stackEmpty())
-                return;
-            obj = stack.stackPop();
+        protected static final class Out extends ByteArrayOutputStream{
+            protected void moveTo(In in){
+                in.set(buf, count);
+            }
+        }
+
+        protected static final class In extends ByteArrayInputStream{
+            protected In() {
+                super(new byte[0]);
+            }
 
+            protected void set(byte[] buf, int count){
+                this.buf = buf;
+                this.pos = 0;
+                this.mark = 0;
+                this.count = count;
+            }
         }
     }
 
@@ -1079,14 +2337,162 @@ public class ElsaSerializerBase implements ElsaSerializer{
         }
     }
 
+    /**
+     * Deserializes object into existing instance. Content of collection, map or object array is replaced,
+     * fields of POJO are overwritten and their current values are refilled the same way.
+     * Instance is reused only if its class is the same as class of serialized object,
+     * otherwise new instance is created. Instance referenced from more places (aliased fields)
+     * is refilled only once, other places get new instance.
+     * Transient fields of reused POJO are not modified and keep their current values.
+     * Supported are POJOs, {@code Object[]}, {@code ArrayList}, {@code LinkedList}, {@code HashSet},
+     * {@code LinkedHashSet}, {@code ArrayDeque}, {@code HashMap}, {@code LinkedHashMap}, {@code IdentityHashMap},
+     * {@code WeakHashMap}, {@code ConcurrentHashMap} and {@code Properties}.
+     *
+     * @param input input to read data from
+     * @param target existing instance to be refilled, can be null
+     * @param <E> type of deserialized object
+     * @return target if it was reused, otherwise new instance
+     * @throws IOException an exception from underlying stream
+     */
+    @Override
+    public <E> E deserializeInto(DataInput input, final E target) throws IOException {
+        ElsaStack stack = borrowElsaStack();
+        try {
+            DeserFrame root = new DeserFrame(1) {
+                Object ret;
+
+                @Override
+                protected void add(Object o) {
+                    ret = o;
+                }
+
+                @Override
+                protected Object finish() {
+                    return ret;
+                }
+
+                @Override
+                protected Object nextTarget() {
+                    return target;
+                }
+            };
+            root.merge = true;
+            return (E) deserializeFrames(input, stack, root);
+        }finally {
+            releaseElsaStack(stack);
+        }
+    }
+
+    /**
+     * Opens serialized collection, array or map. Its elements are deserialized one at a time by returned iterator,
+     * so collection does not have to fit into memory.
+     *
+     * @param input input to read data from, it must start with serialized collection
+     * @param <E> type of elements
+     * @return iterator over elements, or over entries if map was serialized
+     * @throws IOException an exception from underlying stream
+     * @see ElsaCollectionIterator
+     */
+    public <E> ElsaCollectionIterator<E> deserializeIterator(DataInput input) throws IOException {
+        return new ElsaCollectionIterator<E>(this, input);
+    }
+
+    /**
+     * Reads single value from input and reports its content to visitor, collections and POJOs are not created.
+     *
+     * @param input input to read data from
+     * @param visitor receives events
+     * @throws IOException an exception from underlying stream
+     * @see ElsaVisitorReader
+     */
+    public void visit(DataInput input, ElsaVisitor visitor) throws IOException {
+        new ElsaVisitorReader(this).read(input, visitor);
+    }
+
+    /**
+     * Opens container which refills existing instance.
+     *
+     * @param in read binary data from here
+     * @param head binary header read from input stream
+     * @param target existing instance to be refilled
+     * @param objectStack objectStack for handling backward references
+     * @return opened container or deserialized object, null if header is not compatible with target and nothing was read
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object openInto(DataInput in, int head, Object target, ElsaStack objectStack) throws IOException {
+        Class expected;
+        switch (head){
+            case Header.ARRAY_OBJECT:
+            case Header.ARRAY_OBJECT_CLASS_REF:
+                if(!(target instanceof Object[]))
+                    return null;
+                return openArrayObject(in, objectStack, head==Header.ARRAY_OBJECT_CLASS_REF, (Object[]) target);
+            case Header.ARRAYLIST: expected = ArrayList.class; break;
+            case Header.LINKEDLIST: expected = java.util.LinkedList.class; break;
+            case Header.HASHSET: expected = HashSet.class; break;
+            case Header.LINKEDHASHSET: expected = LinkedHashSet.class; break;
+            case Header.ARRAY_DEQUE: expected = ArrayDeque.class; break;
+            case Header.HASHMAP: expected = HashMap.class; break;
+            case Header.LINKEDHASHMAP: expected = LinkedHashMap.class; break;
+            case Header.IDENTITY_HASHMAP: expected = IdentityHashMap.class; break;
+            case Header.WEAK_HASHMAP: expected = WeakHashMap.class; break;
+            case Header.CONCURRENT_HASHMAP: expected = ConcurrentHashMap.class; break;
+            case Header.PROPERTIES: expected = Properties.class; break;
+            default: return null;
+        }
+        //instance referenced from more places is refilled only once
+        if(target.getClass()!=expected || !objectStack.reuse(target))
+            return null;
+
+        int size = ElsaUtil.unpackInt(in);
+        objectStack.add(target);
+        if(target instanceof Map){
+            ((Map) target).clear();
+            return new MapFrame(size*2, (Map) target);
+        }
+        ((Collection) target).clear();
+        return new CollectionFrame(size, (Collection) target);
+    }
+
     @Override
     public <E> E clone(E value) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        DataOutputStream out2 = new DataOutputStream(out);
-        serialize(out2, value);
+        Recycled r = recycled.get();
+        CloneBuffer b = r.cloneBuffer;
+        r.cloneBuffer = null;
+        if(b==null)
+            b = new CloneBuffer();
+        try {
+            b.out.reset();
+            serialize(b.out2, value);
+            b.out.moveTo(b.in);
+            return (E) deserialize(b.in2);
+        }finally {
+            b.in.set(null, 0);
+            if(b.out.size()<=RECYCLE_MAX_BUFFER)
+                r.cloneBuffer = b;
+        }
+    }
 
-        DataInputStream ins = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
-        return (E) deserialize(ins);
+    /**
+     * Serializes object together with all its subelements. Usual serialization defers subelements to the main loop,
+     * this method returns only after whole object graph was written.
+     * It is used when more data follows, such as {@code ObjectOutputStream.writeObject()} from Java Serialization hooks.
+     *
+     * @param out put binary data here
+     * @param obj object to be serialized
+     * @param objectStack objectStack for handling backward references
+     * @throws IOException an exception from underlying stream
+     */
+    protected void serializeNested(final DataOutput out, Object obj, ElsaStack objectStack) throws IOException {
+        objectStack.stackFinish();
+        int depth = objectStack.stackSize();
+        while (true) {
+            serialize(out, obj, objectStack);
+            objectStack.stackFinish();
+            if(objectStack.stackSize()==depth)
+                return;
+            obj = objectStack.stackPop();
+        }
     }
 
     private void serialize(final DataOutput out, final Object obj, ElsaStack objectStack) throws IOException {
@@ -1118,12 +2524,14 @@ public class ElsaSerializerBase implements ElsaSerializer{
             return;
         }
 
-        //try mapdb singletons
-        final Integer mapdbSingletonHeader = singletonsReverse.get(obj);
-        if(mapdbSingletonHeader!=null){
-            out.write(Header.SINGLETON);
-            ElsaUtil.packInt(out, mapdbSingletonHeader);
-            return;
+        //try mapdb singletons, skip identity hash lookup if there are none
+        if(singletons.length!=0) {
+            final Integer mapdbSingletonHeader = singletonsReverse.get(obj);
+            if (mapdbSingletonHeader != null) {
+                out.write(Header.SINGLETON);
+                ElsaUtil.packInt(out, mapdbSingletonHeader);
+                return;
+            }
         }
 
         Serializer s = ser.get(obj.getClass());
@@ -1454,10 +2862,65 @@ public class ElsaSerializerBase implements ElsaSerializer{
     };
 
     protected void serializeClass(DataOutput out, Class clazz) throws IOException {
-        //TODO override in ElsaSerializerPojo
         out.writeUTF(clazz.getName());
     }
 
+    /**
+     * Writes reference to class, used for Object[] component types and Class values.
+     * Lowest bit is set if class is stored in {@link ElsaClassInfoResolver}, otherwise reference is index
+     * into class table of local stream. Class name is written into stream only on first use.
+     *
+     * @param out put binary data here
+     * @param clazz class to reference
+     * @param objectStack objectStack with local class table
+     * @throws IOException an exception from underlying stream
+     */
+    protected void serializeClassRef(DataOutput out, Class clazz, ElsaStack objectStack) throws IOException {
+        int classId = classRefResolverId(clazz);
+        if(classId>=0){
+            ElsaUtil.packInt(out, (classId<<1) | 1);
+            return;
+        }
+        classId = objectStack.resolveClassRef(clazz);
+        if(classId>=0){
+            ElsaUtil.packInt(out, classId<<1);
+            return;
+        }
+        //new entry in local table, its index is followed by class name
+        classId = objectStack.addClassRef(clazz);
+        ElsaUtil.packInt(out, classId<<1);
+        out.writeUTF(clazz.getName());
+    }
+
+    /** reads class reference written by {@link #serializeClassRef(DataOutput, Class, ElsaStack)} */
+    protected Class deserializeClassRef(DataInput in, ElsaStack objectStack) throws IOException {
+        int classId = ElsaUtil.unpackInt(in);
+        if((classId & 1) != 0)
+            return classRefResolverClass(classId >>> 1);
+        classId >>>= 1;
+        if(classId != objectStack.getClassRefCount())
+            return objectStack.resolveClassRef(classId);
+        Class clazz = loadClassCachedUnchecked(in.readUTF());
+        objectStack.addClassRef(clazz);
+        return clazz;
+    }
+
+    /**
+     * @param clazz class to find
+     * @return ID of class in global class resolver, or -1 if class is not registered there
+     */
+    protected int classRefResolverId(Class clazz){
+        return -1;
+    }
+
+    /**
+     * @param classId ID of class in global class resolver
+     * @return class with given ID
+     */
+    protected Class classRefResolverClass(int classId){
+        throw new ElsaException("Class resolver is not available, class ID: "+classId);
+    }
+
 
     private void serializeMap(int header, DataOutput out, Object obj, ElsaStack objectStack) throws IOException {
         Map<Object,Object> l = (Map) obj;
@@ -1519,29 +2982,71 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
     @Override
     public Object deserialize(DataInput input) throws IOException {
-        return deserialize(input, newElsaStack());
+        ElsaStack stack = borrowElsaStack();
+        try {
+            return deserialize(input, stack);
+        }finally {
+            releaseElsaStack(stack);
+        }
     }
 
     public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+        return deserializeFrames(in, objectStack, null);
+    }
 
-        final int head = in.readUnsignedByte();
+    /**
+     * Deserialization loop. Containers are not deserialized recursively, but are opened as {@link DeserFrame}
+     * and put on work stack. Their elements are read by this loop and added into top frame.
+     * Depth of object graph is limited only by heap, not by size of thread stack.
+     *
+     * @param in read binary data from here
+     * @param objectStack objectStack for handling backward references
+     * @param frame already opened container, or null to read single object
+     * @return deserialized object, or finished container
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object deserializeFrames(DataInput in, ElsaStack objectStack, DeserFrame frame) throws IOException {
+        while(true) {
+            Object ret;
+            if (frame != null && frame.remaining == 0) {
+                //all elements were read, pass container into its parent
+                ret = frame.finish();
+                frame = frame.parent;
+            } else {
+                final int head = in.readUnsignedByte();
+
+                int oldObjectStackSize = objectStack.getSize();
+
+                Deserializer deser = headerDeser[head];
+                Object target = frame != null && frame.merge ? frame.nextTarget() : null;
+                if (target != null && (ret = openInto(in, head, target, objectStack)) != null) {
+                    //existing instance is refilled
+                } else if (deser instanceof ContainerDeserializer) {
+                    ret = ((ContainerDeserializer) deser).open(in, objectStack);
+                } else if (deser != null) {
+                    ret = deser.deserialize(in, objectStack);
+                } else {
+                    ret = openUnknownHeader(in, head, objectStack);
+                }
 
-        int oldObjectStackSize = objectStack.getSize();
+                if (ret instanceof DeserFrame) {
+                    DeserFrame opened = (DeserFrame) ret;
+                    opened.parent = frame;
+                    frame = opened;
+                    continue;
+                }
 
-        Object ret;
-        Deserializer deser = headerDeser[head];
-        if(deser!=null){
-            ret = deser.deserialize(in, objectStack);
-        }else{
-            ret = deserializeUnknownHeader(in, head,objectStack);
-        }
+                if (head != Header.OBJECT_STACK && ret != null && objectStack.getSize() == oldObjectStackSize) {
+                    //check if object was not already added to stack as part of collection
+                    objectStack.add(ret);
+                }
+            }
 
-        if (head != Header.OBJECT_STACK && ret!=null && objectStack.getSize() == oldObjectStackSize) {
-            //check if object was not already added to stack as part of collection
-            objectStack.add(ret);
+            if (frame == null)
+                return ret;
+            frame.remaining--;
+            frame.add(ret);
         }
-
-        return ret;
     }
 
 
@@ -1562,120 +3067,225 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
 
 
-    private Object[] deserializeArrayObject(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openArrayObject(DataInput is, ElsaStack objectStack, boolean classRef, Object[] target) throws IOException {
         int size = ElsaUtil.unpackInt(is);
-        Class clazz = loadClassCachedUnchecked(is.readUTF());
-        Object[] s = (Object[]) java.lang.reflect.Array.newInstance(clazz, size);
+        Class clazz = classRef
+                ? deserializeClassRef(is, objectStack)
+                : loadClassCachedUnchecked(is.readUTF());
+        Object[] s = target!=null && target.length==size && target.getClass().getComponentType()==clazz
+                && objectStack.reuse(target)
+                ? target
+                : (Object[]) java.lang.reflect.Array.newInstance(clazz, size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++){
-            s[i] = deserialize(is, objectStack);
-        }
-        return s;
+        return new ArrayFrame(s);
     }
 
 
-    private ArrayList<Object> deserializeArrayList(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openArrayList(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
         ArrayList<Object> s = new ArrayList<Object>(size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++) {
-            s.add(deserialize(is, objectStack));
-        }
-        return s;
+        return new CollectionFrame(size, s);
     }
 
 
-    private java.util.LinkedList deserializeLinkedList(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openLinkedList(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
         java.util.LinkedList s = new java.util.LinkedList();
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        return new CollectionFrame(size, s);
     }
 
 
 
 
-    private HashSet<Object> deserializeHashSet(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openHashSet(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
         HashSet<Object> s = new HashSet<Object>(size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        return new CollectionFrame(size, s);
     }
 
 
-    private LinkedHashSet<Object> deserializeLinkedHashSet(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openLinkedHashSet(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
         LinkedHashSet<Object> s = new LinkedHashSet<Object>(size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        return new CollectionFrame(size, s);
     }
 
 
-    private TreeSet<Object> deserializeTreeSet(DataInput is, ElsaStack objectStack) throws IOException {
+    /** comparator is first element, set is created after it was read */
+    private DeserFrame openTreeSet(DataInput is, final ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
-        TreeSet<Object> s = new TreeSet<Object>();
-        objectStack.add(s);
-        Comparator comparator = (Comparator) deserialize(is, objectStack);
-        if (comparator != null)
-            s = new TreeSet<Object>(comparator);
-
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+        return new CollectionFrame(size+1, null){
+            @Override
+            protected void add(Object o) {
+                if(c==null){
+                    c = new TreeSet<Object>((Comparator) o);
+                    objectStack.setInstance(stackPos, c);
+                }else {
+                    super.add(o);
+                }
+            }
+        };
     }
 
 
-    private TreeMap<Object, Object> deserializeTreeMap(DataInput is, ElsaStack objectStack) throws IOException {
+    /** comparator is first element, map is created after it was read */
+    private DeserFrame openTreeMap(DataInput is, final ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
-
-        TreeMap<Object, Object> s = new TreeMap<Object, Object>();
-        objectStack.add(s);
-        Comparator comparator = (Comparator) deserialize(is, objectStack);
-        if (comparator != null)
-            s = new TreeMap<Object, Object>(comparator);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+        return new MapFrame(size*2+1, null){
+            @Override
+            protected void add(Object o) {
+                if(m==null){
+                    m = new TreeMap<Object, Object>((Comparator) o);
+                    objectStack.setInstance(stackPos, m);
+                }else {
+                    super.add(o);
+                }
+            }
+        };
     }
 
 
-    private HashMap<Object, Object> deserializeHashMap(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openHashMap(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
 
         HashMap<Object, Object> s = new HashMap<Object, Object>(size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        return new MapFrame(size*2, s);
     }
 
 
-    private LinkedHashMap<Object, Object> deserializeLinkedHashMap(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openLinkedHashMap(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
 
         LinkedHashMap<Object, Object> s = new LinkedHashMap<Object, Object>(size);
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        return new MapFrame(size*2, s);
     }
 
 
 
-    private Properties deserializeProperties(DataInput is, ElsaStack objectStack) throws IOException {
+    private DeserFrame openProperties(DataInput is, ElsaStack objectStack) throws IOException {
         int size = ElsaUtil.unpackInt(is);
 
         Properties s = new Properties();
         objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        return new MapFrame(size*2, s);
+    }
+
+    private DeserFrame openArrayDeque(DataInput is, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        ArrayDeque<Object> s = new ArrayDeque<Object>(size);
+        objectStack.add(s);
+        return new CollectionFrame(size, s);
+    }
+
+    /**
+     * Elements are stored in heap order, so each insert ends without moving elements and queue is built in linear time.
+     * Comparator is first element, queue is created after it was read.
+     */
+    private DeserFrame openPriorityQueue(DataInput is, final ElsaStack objectStack) throws IOException {
+        final int size = ElsaUtil.unpackInt(is);
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+        return new CollectionFrame(size+1, null){
+            @Override
+            protected void add(Object o) {
+                if(c==null){
+                    c = new PriorityQueue<Object>(Math.max(1, size), (Comparator) o);
+                    objectStack.setInstance(stackPos, c);
+                }else {
+                    super.add(o);
+                }
+            }
+        };
+    }
+
+    private DeserFrame openIdentityHashMap(DataInput is, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        IdentityHashMap<Object, Object> s = new IdentityHashMap<Object, Object>(size);
+        objectStack.add(s);
+        return new MapFrame(size*2, s);
+    }
+
+    private DeserFrame openWeakHashMap(DataInput is, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        WeakHashMap<Object, Object> s = new WeakHashMap<Object, Object>(Math.max(1, size));
+        objectStack.add(s);
+        return new MapFrame(size*2, s);
+    }
+
+    private DeserFrame openConcurrentHashMap(DataInput is, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+
+        ConcurrentHashMap<Object, Object> s = new ConcurrentHashMap<Object, Object>(size);
+        objectStack.add(s);
+        return new MapFrame(size*2, s);
+    }
+
+    /**
+     * Comparator is first element, map is created after it was read.
+     * Entries are sorted, so each put appends at the end of skip list.
+     */
+    private DeserFrame openConcurrentSkipListMap(DataInput is, final ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+        return new MapFrame(size*2+1, null){
+            @Override
+            protected void add(Object o) {
+                if(m==null){
+                    m = new ConcurrentSkipListMap<Object, Object>((Comparator) o);
+                    objectStack.setInstance(stackPos, m);
+                }else {
+                    //skip list does not allow nulls, so null is reference to object which was not created yet
+                    if(o==null)
+                        throw new ElsaException("Cyclic reference in ConcurrentSkipListMap");
+                    super.add(o);
+                }
+            }
+        };
+    }
+
+    /** comparator is first element, set is created after it was read */
+    private DeserFrame openConcurrentSkipListSet(DataInput is, final ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+        return new CollectionFrame(size+1, null){
+            @Override
+            protected void add(Object o) {
+                if(c==null){
+                    c = new ConcurrentSkipListSet<Object>((Comparator) o);
+                    objectStack.setInstance(stackPos, c);
+                }else {
+                    if(o==null)
+                        throw new ElsaException("Cyclic reference in ConcurrentSkipListSet");
+                    super.add(o);
+                }
+            }
+        };
+    }
+
+    /** elements are collected into array, so list is not copied on each add */
+    private DeserFrame openCopyOnWriteArrayList(DataInput is, ElsaStack objectStack) throws IOException {
+        int size = ElsaUtil.unpackInt(is);
+        final CopyOnWriteArrayList<Object> s = new CopyOnWriteArrayList<Object>();
+        objectStack.add(s);
+        return new ArrayFrame(new Object[size]){
+            @Override
+            protected Object finish() {
+                s.addAll(Arrays.asList(a));
+                return s;
+            }
+        };
     }
 
     /** override this method to extend ElsaSerializerBase functionality
@@ -1688,6 +3298,21 @@ public class ElsaSerializerBase implements ElsaSerializer{
         throw new NotSerializableException("Could not serialize unknown object: "+obj.getClass().getName());
     }
 
+    /**
+     * Reads object with unknown header. Unlike {@link #deserializeUnknownHeader(DataInput, int, ElsaStack)} it can
+     * return {@link DeserFrame}, elements of such container are read by {@link #deserializeFrames(DataInput, ElsaStack, DeserFrame)}.
+     * Default implementation calls {@link #deserializeUnknownHeader(DataInput, int, ElsaStack)}.
+     *
+     * @param is read binary data from here
+     * @param head binary header read from input stream
+     * @param objectStack objectStack for handling backward references
+     * @return deserialized object or opened container
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object openUnknownHeader(DataInput is, int head, ElsaStack objectStack) throws IOException {
+        return deserializeUnknownHeader(is, head, objectStack);
+    }
+
     /** override this method to extend ElsaSerializerBase functionality
      * @param is read binary data from here
      * @param head binary header read from input stream
@@ -1914,12 +3539,40 @@ public class ElsaSerializerBase implements ElsaSerializer{
         int BIGINTEGER = 138;
 
 
+        /** {@code Class} value followed by class name, written by older versions, see {@link #CLASS_REF} */
         int CLASS = 139;
         int DATE = 140;
         int UUID = 141;
         int USER_DESER = 142;
 
-        //142 to 158 reserved for other non recursive objects
+        /** Enum constant, followed by packed class ID and ordinal */
+        int ENUM = 143;
+
+        /** {@code java.time} types, written as packed numbers instead of Java Serialization */
+        int INSTANT = 144;
+        int LOCAL_DATE = 145;
+        int LOCAL_TIME = 146;
+        int LOCAL_DATE_TIME = 147;
+        int OFFSET_DATE_TIME = 148;
+        int ZONED_DATE_TIME = 149;
+        int DURATION = 150;
+        int ZONE_ID = 151;
+
+        /** EnumSet, followed by packed class ID of enum, packed size of bitmask and bitmask of ordinals */
+        int ENUM_SET = 152;
+
+        /** BitSet, followed by packed number of words and words as 8 byte longs */
+        int BITSET = 153;
+
+        /** {@code Optional.empty()} */
+        int OPTIONAL_EMPTY = 154;
+        /** counters followed by zig-zag packed value */
+        int ATOMIC_INTEGER = 155;
+        int ATOMIC_LONG = 156;
+        int LONG_ADDER = 157;
+
+        /** {@code Class} value, followed by class reference */
+        int CLASS_REF = 158;
 
         int SINGLETON = 159;
         int  ARRAY_OBJECT = 160;
@@ -1960,6 +3613,53 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         /** Class Info stored in local stream */
         int POJO_CLASSINFO = 176;
+
+        /**
+         * Object was replaced by {@code writeReplace()} method, replacement follows
+         */
+        int POJO_REPLACED = 177;
+
+        /**
+         * Object uses Java Serialization hooks ({@code writeObject()}, {@code readObject()}...),
+         * which are emulated by Elsa. Followed by packed class ID and data of each class in hierarchy.
+         */
+        int POJO_SERIAL = 178;
+
+        /**
+         * Large collections serialized in independent chunks, see {@link ElsaSerializerBase#serializeChunked(DataOutput, Object)}
+         */
+        int ARRAYLIST_CHUNKED = 179;
+        int ARRAY_OBJECT_CHUNKED = 180;
+        int HASHMAP_CHUNKED = 181;
+
+        /** {@code java.util.concurrent} collections, contain snapshot taken at serialization */
+        int CONCURRENT_HASHMAP = 182;
+        int CONCURRENT_SKIPLIST_MAP = 183;
+        int CONCURRENT_SKIPLIST_SET = 184;
+        int COPY_ON_WRITE_ARRAYLIST = 185;
+
+        /**
+         * JDK wrapper and immutable collections ({@code Collections.unmodifiableList()}, {@code List.of()}...),
+         * followed by wrapper kind and content, see {@link ElsaSerializerBase#WRAPPER_EMPTY_LIST}
+         */
+        int COLLECTION_WRAPPER = 186;
+
+        /** EnumMap, followed by packed class ID of enum, bitmask of present keys and values */
+        int ENUM_MAP = 187;
+
+        int ARRAY_DEQUE = 188;
+        /** PriorityQueue, followed by size, comparator and elements in heap order */
+        int PRIORITY_QUEUE = 189;
+        int IDENTITY_HASHMAP = 190;
+        int WEAK_HASHMAP = 191;
+
+        /** non empty Optional and AtomicReference, followed by value */
+        int OPTIONAL = 192;
+        int ATOMIC_REFERENCE = 193;
+
+        /** Object[], component type is written as class reference, rather than as full class name */
+        int ARRAY_OBJECT_CLASS_REF = 194;
+        int ARRAY_OBJECT_ALL_NULL_CLASS_REF = 195;
     }
 
     /**
@@ -16,9 +16,12 @@
 package org.mapdb.elsa;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
@@ -59,7 +62,22 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             Map<Integer, Deserializer> userDeser,
             ElsaClassCallback missingClassNotification,
             ElsaClassInfoResolver classInfoResolver){
-        super(classLoader, objectStackType, singletons, userSer, userSerHeaders, userDeser);
+        this(classLoader, objectStackType, singletons, userSer, userSerHeaders, userDeser,
+                missingClassNotification, classInfoResolver, null, 0);
+    }
+
+    public ElsaSerializerPojo(
+            ClassLoader classLoader,
+            int objectStackType,
+            Object[] singletons,
+            Map<Class, Serializer> userSer,
+            Map<Class, Integer> userSerHeaders,
+            Map<Integer, Deserializer> userDeser,
+            ElsaClassCallback missingClassNotification,
+            ElsaClassInfoResolver classInfoResolver,
+            ForkJoinPool parallelPool,
+            int parallelChunkSize){
+        super(classLoader, objectStackType, singletons, userSer, userSerHeaders, userDeser, parallelPool, parallelChunkSize);
         this.missingClassNotification = missingClassNotification!=null?missingClassNotification: ElsaClassCallback.VOID;
         this.classInfoResolver = classInfoResolver!=null?classInfoResolver: ElsaClassInfoResolver.VOID;
     }
@@ -83,6 +101,19 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
     }
 
     public ClassInfo classInfoDeserialize(DataInput in) throws IOException{
+        return classInfoDeserialize(in, false);
+    }
+
+    /**
+     * Reads Class Info written by {@link #classInfoSerialize(DataOutput, ClassInfo)}.
+     *
+     * @param in read binary data from here
+     * @param optionalFields if true, fields which do not exist in current class (or have different type) are allowed,
+     *                       their values are ignored on deserialization. Used for Class Infos stored for long time.
+     * @return Class Info
+     * @throws IOException an exception from underlying stream
+     */
+    public ClassInfo classInfoDeserialize(DataInput in, boolean optionalFields) throws IOException{
         String className = in.readUTF();
         Class clazz = null;
         boolean isEnum = in.readBoolean();
@@ -99,10 +130,12 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             if(clazz == null)
                 clazz = loadClassCachedUnchecked(className);
 
-            fields[j] = new FieldInfo(fieldName,
-                    type,
-                    primitive?null: loadClassCachedUnchecked(type),
-                    clazz);
+            fields[j] = optionalFields
+                    ? new FieldInfo(fieldName, primitive, type, clazz)
+                    : new FieldInfo(fieldName,
+                        type,
+                        primitive?null: loadClassCachedUnchecked(type),
+                        clazz);
         }
         return new ClassInfo(className, fields, isEnum, externalizable, useObjectStream);
     }
@@ -127,6 +160,8 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
     protected void notifyMissingClassInfo(Class className){
         missingClassNotification.classMissing(className);
+        if(classInfoResolver instanceof ElsaClassCallback && classInfoResolver!=missingClassNotification)
+            ((ElsaClassCallback) classInfoResolver).classMissing(className);
     }
 
 
@@ -242,26 +277,52 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             this.typeClass = typeClass;
 
             //init field
+            field = findField(clazz, name);
+            if(field==null)
+                throw new RuntimeException("Could not set field value: "+name+" - "+clazz.toString());
+        }
+
+        /**
+         * Field which might not exist in current class anymore, for example when class changed after its Class Info was stored.
+         * {@link #field} is null if field does not exist or if its type has changed, its value is ignored on deserialization.
+         *
+         * @param name field name
+         * @param primitive true if field has primitive type
+         * @param type name of field type
+         * @param clazz class containing this field
+         */
+        public FieldInfo(String name, boolean primitive, String type, Class<?> clazz) {
+            this.name = name;
+            this.primitive = primitive;
+            this.type = type;
+            this.clazz = clazz;
+
+            Field f = findField(clazz, name);
+            if(f!=null && f.getType().getName().equals(type)){
+                field = f;
+                typeClass = primitive ? null : f.getType();
+            }
+        }
 
+        private static Field findField(Class<?> clazz, String name){
             Class<?> aClazz = clazz;
 
             // iterate over class hierarchy, until root class
-            while (true) {
-                if(aClazz == Object.class) throw new RuntimeException("Could not set field value: "+name+" - "+clazz.toString());
+            while (aClazz != Object.class && aClazz != null) {
                 // access field directly
                 try {
                     Field f = aClazz.getDeclaredField(name);
                     // security manager may not be happy about this
                     if (!f.isAccessible())
                         f.setAccessible(true);
-                    field = f;
-                    break;
+                    return f;
                 } catch (NoSuchFieldException e) {
                     //field does not exists
                 }
                 // move to superclass
                 aClazz = aClazz.getSuperclass();
             }
+            return null;
         }
 
         @Override
@@ -293,18 +354,28 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
     }
 
 
-    //TODO this should not be static? classes if different shapes within the same JVM?
-    static protected Map<Class, ClassInfo> classInfoCache = new ConcurrentHashMap<Class, ClassInfo>();
-
-    public static ClassInfo makeClassInfo(Class clazz, ClassLoader classLoader){
-        classLoader = defaultClassLoaderIfNull(classLoader);
-        ClassInfo ci = classInfoCache.get(clazz);
-        if(ci==null){
+    /**
+     * ClassInfo for classes serialized by this serializer.
+     * Values are attached to {@code Class} itself, so cache does not prevent class unloading
+     * and different serializers do not share cached state.
+     */
+    protected final ClassValue<ClassInfo> classInfoCache = new ClassValue<ClassInfo>() {
+        @Override
+        protected ClassInfo computeValue(Class<?> clazz) {
             //this is thread safe, in worst case ClassInfo will be created multiple times
-            ci = makeClassInfo2(clazz, classLoader);
-            classInfoCache.put(clazz, ci);
+            return makeClassInfo2(clazz, classLoader);
         }
-        return ci;
+    };
+
+    /**
+     * Creates new ClassInfo for given class. Result is not cached, serializer caches ClassInfo in {@link #classInfoCache}
+     *
+     * @param clazz class to analyze
+     * @param classLoader used to load classes of fields, context class loader is used if null
+     * @return class structure
+     */
+    public static ClassInfo makeClassInfo(Class clazz, ClassLoader classLoader){
+        return makeClassInfo2(clazz, classLoader);
     }
 
     protected static ClassInfo makeClassInfo2(Class clazz, ClassLoader classLoader){
@@ -312,7 +383,10 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
         final boolean externalizable = Externalizable.class.isAssignableFrom(clazz);
         final boolean advancedSer = !externalizable && useJavaSerialization(clazz);
-        ObjectStreamField[] streamFields = externalizable || advancedSer ? new ObjectStreamField[0] : makeFieldsForClass(clazz);
+        ObjectStreamField[] streamFields =
+                externalizable || advancedSer ? new ObjectStreamField[0] :
+                isRecord(clazz) ? makeFieldsForRecord(clazz) :
+                makeFieldsForClass(clazz);
         FieldInfo[] fields = new FieldInfo[streamFields.length];
         for (int i = 0; i < fields.length; i++) {
             ObjectStreamField sf = streamFields[i];
@@ -453,8 +527,23 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
     @Override
     protected void serializeUnknownObject(DataOutput out, Object obj, ElsaStack objectStack) throws IOException {
+        if(obj instanceof Enum){
+            serializeEnum(out, (Enum<?>) obj, objectStack);
+            return;
+        }
+        if(obj instanceof EnumSet && serializeEnumSet(out, (EnumSet<?>) obj, objectStack))
+            return;
+        if(obj.getClass()==EnumMap.class && serializeEnumMap(out, (EnumMap<?,?>) obj, objectStack))
+            return;
+
         assertClassSerializable(obj.getClass());
 
+        SerialHooks hooks = serialHooks.get(obj.getClass());
+        if(hooks!=null){
+            serializeWithHooks(out, obj, hooks, objectStack);
+            return;
+        }
+
         int head = Header.POJO;
         ClassInfo classInfo;
 
@@ -466,13 +555,19 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         }else if((classId = objectStack.resolveClassId(obj.getClass().getName())) <0) {
             //class is not known
             notifyMissingClassInfo(obj.getClass());
-            classInfo = makeClassInfo(obj.getClass(), classLoader);
-
-            //write unknown class info into local class catalog
-            classId = objectStack.addClassInfo(classInfo);
-            out.write(Header.POJO_CLASSINFO);
-            ElsaUtil.packInt(out, classId);
-            classInfoSerialize(out, classInfo);
+            if((classId = classToId(obj.getClass().getName()))>=0){
+                //callback registered class in global class resolver
+                head = Header.POJO_RESOLVER;
+                classInfo = getClassInfo(classId);
+            }else {
+                classInfo = classInfoCache.get(obj.getClass());
+
+                //write unknown class info into local class catalog
+                classId = objectStack.addClassInfo(classInfo);
+                out.write(Header.POJO_CLASSINFO);
+                ElsaUtil.packInt(out, classId);
+                classInfoSerialize(out, classInfo);
+            }
         }else{
             //classId is known in stream, get it from object stack
             classInfo = objectStack.resolveClassInfo(classId);
@@ -483,7 +578,7 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         //and rest of the data
 
         if(classInfo.useObjectStream){
-            ObjectOutputStream2 out2 = new ObjectOutputStream2(this, (OutputStream) out);
+            ObjectOutputStream2 out2 = new ObjectOutputStream2(this, wrapStream(out, objectStack));
             out2.writeObject(obj);
             return;
         }
@@ -494,11 +589,17 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         }
 
         if(classInfo.externalizable){
-            ElsaObjectOutputStream out2 = new ElsaObjectOutputStream(out, this);
+            ElsaObjectOutputStream out2 = objectStack.externalOutput(out, this);
             ((Externalizable)obj).writeExternal(out2);
             return;
         }
 
+        RecordInfo recordInfo = recordInfos.get(obj.getClass());
+        if(recordInfo!=null){
+            serializeRecord(out, obj, classInfo, recordInfo, objectStack);
+            return;
+        }
+
         ObjectStreamField[] fields = fieldsForClass(obj.getClass());
         ElsaUtil.packInt(out, fields.length);
 
@@ -522,31 +623,319 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         objectStack.stackPushIter(fieldValues);
     }
 
+    /**
+     * Resolves class ID used by compact headers such as {@link Header#ENUM}.
+     * Lowest bit of class ID is set if class is stored in {@link ElsaClassInfoResolver},
+     * otherwise Class Info is stored in local stream. It is written into stream on first use.
+     *
+     * @param out put binary data here
+     * @param clazz class to resolve
+     * @param objectStack objectStack with local Class Infos
+     * @return class ID to be written after header
+     * @throws IOException an exception from underlying stream
+     */
+    protected int serializeClassId(DataOutput out, Class<?> clazz, ElsaStack objectStack) throws IOException {
+        int classId = classToId(clazz.getName());
+        if(classId>=0)
+            return (classId<<1) | 1;
+
+        classId = objectStack.resolveClassId(clazz.getName());
+        if(classId<0){
+            notifyMissingClassInfo(clazz);
+            //callback might register class in global class resolver
+            classId = classToId(clazz.getName());
+            if(classId>=0)
+                return (classId<<1) | 1;
+            ClassInfo classInfo = classInfoCache.get(clazz);
+            classId = objectStack.addClassInfo(classInfo);
+            out.write(Header.POJO_CLASSINFO);
+            ElsaUtil.packInt(out, classId);
+            classInfoSerialize(out, classInfo);
+        }
+        return classId<<1;
+    }
+
+    @Override
+    protected int classRefResolverId(Class clazz) {
+        return classToId(clazz.getName());
+    }
+
+    @Override
+    protected Class classRefResolverClass(int classId) {
+        ClassInfo classInfo = getClassInfo(classId);
+        if(classInfo==null)
+            throw new ElsaException("Unknown class ID: "+classId);
+        return loadClassCachedUnchecked(classInfo.name);
+    }
+
+    /** reads class ID written by {@link #serializeClassId(DataOutput, Class, ElsaStack)} */
+    protected ClassInfo deserializeClassId(DataInput in, ElsaStack objectStack) throws IOException {
+        int classId = ElsaUtil.unpackInt(in);
+        return (classId & 1) != 0
+                ? getClassInfo(classId >>> 1)
+                : objectStack.resolveClassInfo(classId >>> 1);
+    }
+
+    /**
+     * Enums are written as class ID and ordinal, without field structure or Java Serialization.
+     */
+    protected void serializeEnum(DataOutput out, Enum<?> e, ElsaStack objectStack) throws IOException {
+        //enum constant with body is anonymous subclass
+        int classId = serializeClassId(out, e.getDeclaringClass(), objectStack);
+        out.write(Header.ENUM);
+        ElsaUtil.packInt(out, classId);
+        ElsaUtil.packInt(out, e.ordinal());
+    }
+
+    protected Object deserializeEnum(DataInput in, ElsaStack objectStack) throws IOException {
+        ClassInfo classInfo = deserializeClassId(in, objectStack);
+        int ordinal = ElsaUtil.unpackInt(in);
+        try {
+            return enumConstants(loadClassCached(classInfo.name))[ordinal];
+        } catch (ClassNotFoundException e) {
+            throw new ElsaException(e);
+        }
+    }
+
+    /**
+     * EnumSet is written as enum class ID and bitmask of ordinals.
+     *
+     * @return false if enum class can not be determined, in that case nothing is written
+     */
+    protected boolean serializeEnumSet(DataOutput out, EnumSet<?> set, ElsaStack objectStack) throws IOException {
+        //element type is private, but complement of empty set contains all constants
+        EnumSet<?> elements = set.isEmpty() ? EnumSet.complementOf(set) : set;
+        if(elements.isEmpty())
+            return false; //enum without constants
+        Class<?> clazz = elements.iterator().next().getDeclaringClass();
+
+        int classId = serializeClassId(out, clazz, objectStack);
+        out.write(Header.ENUM_SET);
+        ElsaUtil.packInt(out, classId);
+        writeOrdinalMask(out, set);
+        return true;
+    }
+
+    protected Object deserializeEnumSet(DataInput in, ElsaStack objectStack) throws IOException {
+        Class clazz = enumClass(deserializeClassId(in, objectStack));
+        Object[] constants = enumConstants(clazz);
+        EnumSet set = EnumSet.noneOf(clazz);
+        int len = ElsaUtil.unpackInt(in);
+        for (int i = 0; i < len; i++) {
+            int b = in.readUnsignedByte();
+            for(; b != 0; b &= b - 1){
+                set.add(constants[i * 8 + Integer.numberOfTrailingZeros(b)]);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * EnumMap is written as enum class ID, bitmask of present keys and values in ordinal order.
+     *
+     * @return false if enum class can not be determined, in that case nothing is written
+     */
+    protected boolean serializeEnumMap(DataOutput out, EnumMap<?,?> map, ElsaStack objectStack) throws IOException {
+        //key type is private field, empty map is left to other serializers
+        if(map.isEmpty())
+            return false;
+        Class<?> clazz = map.keySet().iterator().next().getDeclaringClass();
+
+        int classId = serializeClassId(out, clazz, objectStack);
+        out.write(Header.ENUM_MAP);
+        ElsaUtil.packInt(out, classId);
+        writeOrdinalMask(out, map.keySet());
+        //keys are iterated in ordinal order
+        objectStack.stackPushIter(map.values());
+        return true;
+    }
+
+    /** values are read by {@link #deserializeFrames(DataInput, ElsaStack, DeserFrame)}, keys are taken from bitmask */
+    protected DeserFrame openEnumMap(DataInput in, ElsaStack objectStack) throws IOException {
+        Class clazz = enumClass(deserializeClassId(in, objectStack));
+        Object[] constants = enumConstants(clazz);
+        final EnumMap map = new EnumMap(clazz);
+        objectStack.add(map);
+        int len = ElsaUtil.unpackInt(in);
+        byte[] mask = new byte[len];
+        in.readFully(mask);
+        final List<Enum> keys = new ArrayList<Enum>();
+        for (int i = 0; i < len; i++) {
+            for(int b = mask[i]&0xFF; b != 0; b &= b - 1){
+                keys.add((Enum) constants[i * 8 + Integer.numberOfTrailingZeros(b)]);
+            }
+        }
+        return new DeserFrame(keys.size()) {
+            @Override
+            protected void add(Object o) {
+                map.put(keys.get(keys.size() - remaining - 1), o);
+            }
+
+            @Override
+            protected Object finish() {
+                return map;
+            }
+        };
+    }
+
+    /** writes packed size and bitmask with bit set for each ordinal */
+    private static void writeOrdinalMask(DataOutput out, Set<? extends Enum<?>> set) throws IOException {
+        byte[] mask = new byte[0];
+        for (Enum<?> e : set) {
+            int ordinal = e.ordinal();
+            if(ordinal / 8 >= mask.length)
+                mask = Arrays.copyOf(mask, ordinal / 8 + 1);
+            mask[ordinal / 8] |= 1 << (ordinal % 8);
+        }
+        ElsaUtil.packInt(out, mask.length);
+        out.write(mask);
+    }
+
+    private Class enumClass(ClassInfo classInfo) {
+        try {
+            return loadClassCached(classInfo.name);
+        } catch (ClassNotFoundException e) {
+            throw new ElsaException(e);
+        }
+    }
+
+    /**
+     * Caches enum constants for each class. {@link Class#getEnumConstants()} clones array on each call.
+     * Returned array is shared and must not be modified.
+     */
+    protected final ClassValue<Object[]> enumConstants = new ClassValue<Object[]>() {
+        @Override
+        protected Object[] computeValue(Class<?> clazz) {
+            return clazz.getEnumConstants();
+        }
+    };
+
+    protected Object[] enumConstants(Class<?> clazz) {
+        Object[] ret = enumConstants.get(clazz);
+        if(ret==null)
+            throw new ElsaException("Not an enum: "+clazz.getName());
+        return ret;
+    }
+
     @Override
     protected Object deserializeUnknownHeader(DataInput in, int head, ElsaStack objectStack) throws IOException {
+        Object ret = openUnknownHeader(in, head, objectStack);
+        if(ret instanceof DeserFrame)
+            ret = deserializeFrames(in, objectStack, (DeserFrame) ret);
+        return ret;
+    }
+
+    /**
+     * POJO fields, records and replaced objects are returned as {@link DeserFrame},
+     * so their content is read without recursion.
+     */
+    @Override
+    protected Object openUnknownHeader(DataInput in, int head, final ElsaStack objectStack) throws IOException {
+        if(head==Header.ENUM)
+            return deserializeEnum(in, objectStack);
+        if(head==Header.ENUM_SET)
+            return deserializeEnumSet(in, objectStack);
+        if(head==Header.ENUM_MAP)
+            return openEnumMap(in, objectStack);
+        if(head==Header.POJO_SERIAL)
+            return deserializeWithHooks(in, objectStack);
+        if(head==Header.POJO_REPLACED){
+            //replacement is created after this object, reserve its position on object stack
+            final int stackPos = objectStack.getSize();
+            objectStack.add(null);
+            return new DeserFrame(1) {
+                Object o;
+
+                @Override
+                protected void add(Object o) {
+                    this.o = o;
+                    objectStack.setInstance(stackPos, o);
+                }
+
+                @Override
+                protected Object finish() {
+                    return o;
+                }
+            };
+        }
 
+        if(head!=Header.POJO_CLASSINFO && head!= Header.POJO_RESOLVER && head!= Header.POJO)
+            throw new ElsaException("wrong header");
+        return openPojo(in, head, null, objectStack);
+    }
+
+    @Override
+    protected Object openInto(DataInput in, int head, Object target, ElsaStack objectStack) throws IOException {
+        if(head==Header.POJO_CLASSINFO || head==Header.POJO_RESOLVER || head==Header.POJO)
+            return openPojo(in, head, target, objectStack);
+        return super.openInto(in, head, target, objectStack);
+    }
+
+    /**
+     * Reads POJO. If target has the same class, its fields are overwritten rather than creating new instance.
+     *
+     * @param in read binary data from here
+     * @param head {@link Header#POJO}, {@link Header#POJO_RESOLVER} or {@link Header#POJO_CLASSINFO}
+     * @param target existing instance to be refilled, can be null
+     * @param objectStack objectStack for handling backward references
+     * @return opened POJO or deserialized object
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object openPojo(DataInput in, int head, final Object target, ElsaStack objectStack) throws IOException {
         if(head==Header.POJO_CLASSINFO){
             int classId = ElsaUtil.unpackInt(in);
             ClassInfo classInfo = classInfoDeserialize(in);
             int classId2 = objectStack.addClassInfo(classInfo);
             if(classId!=classId2)
                 throw new ElsaException("Wrong Stream ClassInfo order");
-            return deserialize(in, objectStack);
+            //object which uses this Class Info follows
+            DeserFrame ret = new DeserFrame(1) {
+                Object o;
+
+                @Override
+                protected void add(Object o) {
+                    this.o = o;
+                }
+
+                @Override
+                protected Object finish() {
+                    return o;
+                }
+
+                @Override
+                protected Object nextTarget() {
+                    return target;
+                }
+            };
+            ret.merge = target!=null;
+            return ret;
         }
-        if(head!= Header.POJO_RESOLVER && head!= Header.POJO)
-            throw new ElsaException("wrong header");
-        try {
-            int classId = ElsaUtil.unpackInt(in);
-            ClassInfo classInfo =
-                    head==Header.POJO_RESOLVER
-                            ? getClassInfo(classId)
-                            : objectStack.resolveClassInfo(classId);
+        int classId = ElsaUtil.unpackInt(in);
+        ClassInfo classInfo =
+                head==Header.POJO_RESOLVER
+                        ? getClassInfo(classId)
+                        : objectStack.resolveClassInfo(classId);
+        return openPojo(in, classId, classInfo, target, objectStack);
+    }
 
+    /**
+     * Reads POJO content after its class ID.
+     *
+     * @param in read binary data from here
+     * @param classId class ID read from input
+     * @param classInfo Class Info of POJO
+     * @param target existing instance to be refilled, can be null
+     * @param objectStack objectStack for handling backward references
+     * @return opened POJO or deserialized object
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object openPojo(DataInput in, int classId, ClassInfo classInfo, final Object target, ElsaStack objectStack) throws IOException {
+        try {
 
             //is unknown Class or uses specialized serialization
             if (classId == -1 || classInfo.useObjectStream) {
                 //deserialize using object stream
-                ObjectInputStream2 in2 = new ObjectInputStream2(this, wrapStream(in));
+                ObjectInputStream2 in2 = new ObjectInputStream2(this, wrapStream(in, objectStack));
                 Object o = in2.readObject();
                 objectStack.add(o);
                 return o;
@@ -556,10 +945,16 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             if (!Serializable.class.isAssignableFrom(clazz))
                 throw new NotSerializableException(clazz.getName());
 
-            Object o;
+            RecordInfo recordInfo = recordInfos.get(clazz);
+            if(recordInfo!=null)
+                return openRecord(in, classInfo, recordInfo, objectStack);
+
+            final Object o;
             if (classInfo.isEnum) {
                 int ordinal = ElsaUtil.unpackInt(in);
-                o = clazz.getEnumConstants()[ordinal];
+                o = enumConstants(clazz)[ordinal];
+            } else if (target!=null && target.getClass()==clazz && !classInfo.externalizable && objectStack.reuse(target)) {
+                o = target;
             } else {
                 o = createInstanceSkippinkConstructor(clazz);
             }
@@ -567,36 +962,516 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             objectStack.add(o);
 
             if(classInfo.externalizable){
-                ElsaObjectInputStream in2 = new ElsaObjectInputStream(in, this);
+                ElsaObjectInputStream in2 = objectStack.externalInput(in, this);
                 ((Externalizable)o).readExternal(in2);
                 return o;
             }
 
             int fieldCount = ElsaUtil.unpackInt(in);
-            int[] fieldIds = new int[fieldCount];
+            final FieldInfo[] fields = new FieldInfo[fieldCount];
             for (int i = 0; i < fieldCount; i++) {
-                fieldIds[i] = ElsaUtil.unpackInt(in);
+                fields[i] = classInfo.fields[ElsaUtil.unpackInt(in)];
             }
 
-            for (int fieldId:fieldIds) {
-                FieldInfo f = classInfo.fields[fieldId];
-                Object fieldValue = deserialize(in, objectStack);
-                setFieldValue(f, o, fieldValue);
-            }
+            DeserFrame ret = new DeserFrame(fieldCount) {
+                @Override
+                protected void add(Object fieldValue) {
+                    FieldInfo f = fields[fields.length - remaining - 1];
+                    //field which does not exist in class anymore is ignored
+                    if(f.field!=null)
+                        setFieldValue(f, o, fieldValue);
+                }
+
+                @Override
+                protected Object finish() {
+                    return o;
+                }
 
-            return o;
+                @Override
+                protected Object nextTarget() {
+                    //current field value is refilled
+                    FieldInfo f = fields[fields.length - remaining];
+                    return f.field==null ? null : getFieldValue(f, o);
+                }
+            };
+            ret.merge = o==target;
+            return ret;
         }catch(ClassNotFoundException e){
             throw new ElsaException(e);
         }
     }
 
-    private InputStream wrapStream(DataInput in) throws IOException {
+    /**
+     * Records use the same binary format as other POJOs: number of fields, field IDs and field values.
+     * Component values are read with accessor methods and instance is created by canonical constructor,
+     * so final fields are never modified by reflection.
+     */
+    protected void serializeRecord(DataOutput out, Object obj, ClassInfo classInfo, RecordInfo recordInfo, ElsaStack objectStack) throws IOException {
+        int len = recordInfo.names.length;
+        ElsaUtil.packInt(out, len);
+        Object[] values = new Object[len];
+        for(int i=0;i<len;i++){
+            int fieldId = classInfo.getFieldId(recordInfo.names[i]);
+            if (fieldId == -1)
+                throw new AssertionError("Missing field: "+recordInfo.names[i]);
+            ElsaUtil.packInt(out, fieldId);
+            values[i] = recordInfo.get(i, obj);
+        }
+        objectStack.stackPushIter(Arrays.asList(values));
+    }
+
+    protected DeserFrame openRecord(DataInput in, ClassInfo classInfo, final RecordInfo recordInfo, final ElsaStack objectStack) throws IOException {
+        //record does not exist until all its components are read, reserve its position on object stack
+        final int stackPos = objectStack.getSize();
+        objectStack.add(null);
+
+        int fieldCount = ElsaUtil.unpackInt(in);
+        final int[] positions = new int[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            positions[i] = recordInfo.indexOf(classInfo.fields[ElsaUtil.unpackInt(in)].name);
+        }
+
+        final Object[] values = recordInfo.defaults.clone();
+        return new DeserFrame(fieldCount) {
+            @Override
+            protected void add(Object fieldValue) {
+                int pos = positions[positions.length - remaining - 1];
+                //field which does not exist in record anymore is ignored
+                if(pos!=-1)
+                    values[pos] = fieldValue;
+            }
+
+            @Override
+            protected Object finish() {
+                Object o = recordInfo.newInstance(values);
+                objectStack.setInstance(stackPos, o);
+                return o;
+            }
+        };
+    }
+
+    /**
+     * Emulates Java Serialization without {@link ObjectOutputStream}. {@code writeReplace()} is invoked directly,
+     * {@code writeObject()} methods get stream which writes all data into Elsa format.
+     * Fields are written for each class in hierarchy separately, so {@code defaultWriteObject()} and {@code putFields()} work as expected.
+     */
+    protected void serializeWithHooks(DataOutput out, Object obj, SerialHooks hooks, ElsaStack objectStack) throws IOException {
+        if(hooks.writeReplace!=null){
+            Object replacement = hooks.invoke(hooks.writeReplace, obj);
+            if(replacement!=obj && (replacement==null || replacement.getClass()!=obj.getClass())){
+                //replacement is serialized as next object
+                out.write(Header.POJO_REPLACED);
+                objectStack.stackPush(replacement);
+                return;
+            }
+            //same class, Java Serialization does not call writeReplace again
+            obj = replacement;
+        }
+
+        int classId = serializeClassId(out, obj.getClass(), objectStack);
+        out.write(Header.POJO_SERIAL);
+        ElsaUtil.packInt(out, classId);
+        HookObjectOutputStream hookOut = objectStack.hookOutput(this);
+        try {
+            hookOut.writeLevels(out, obj, hooks);
+        }finally {
+            objectStack.hookRelease();
+        }
+    }
+
+    protected Object deserializeWithHooks(DataInput in, ElsaStack objectStack) throws IOException {
+        ClassInfo classInfo = deserializeClassId(in, objectStack);
+        Class<?> clazz;
+        try {
+            clazz = loadClassCached(classInfo.name);
+        } catch (ClassNotFoundException e) {
+            throw new ElsaException(e);
+        }
+        SerialHooks hooks = serialHooks.get(clazz);
+        if(hooks==null)
+            throw new ElsaException("Java Serialization hooks can not be emulated for class: "+clazz.getName());
+
+        Object o = createInstanceSkippinkConstructor(clazz);
+        int stackPos = objectStack.getSize();
+        objectStack.add(o);
+        HookObjectInputStream hookIn = objectStack.hookInput(this);
+        try {
+            hookIn.readLevels(in, o, hooks);
+        }finally {
+            objectStack.hookRelease();
+        }
+
+        if(hooks.readResolve!=null){
+            Object resolved = hooks.invoke(hooks.readResolve, o);
+            if(resolved!=o){
+                objectStack.setInstance(stackPos, resolved);
+                o = resolved;
+            }
+        }
+        return o;
+    }
+
+    private static OutputStream wrapStream(DataOutput out, ElsaStack objectStack) {
+        if(out instanceof OutputStream)
+            return (OutputStream) out;
+        return objectStack.outputBridge(out);
+    }
+
+    private static InputStream wrapStream(DataInput in, ElsaStack objectStack) {
         if(in instanceof InputStream)
             return (InputStream) in;
-        return new ElsaObjectInputStream(in, this);
+        return objectStack.inputBridge(in);
     }
 
 
+    /** record structure, null for classes which are not records */
+    protected final ClassValue<RecordInfo> recordInfos = new ClassValue<RecordInfo>() {
+        @Override
+        protected RecordInfo computeValue(Class<?> clazz) {
+            if(!isRecord(clazz) || classInfoCache.get(clazz).useObjectStream)
+                return null;
+            try {
+                return new RecordInfo(clazz);
+            } catch (ReflectiveOperationException e) {
+                throw new ElsaException(e);
+            }
+        }
+    };
+
+    /**
+     * Record components of single record class.
+     * Components are accessed with {@link MethodHandle}s, instance is created by canonical constructor.
+     */
+    protected static final class RecordInfo{
+
+        protected final String[] names;
+        protected final Object[] defaults;
+        protected final MethodHandle[] accessors;
+        protected final MethodHandle constructor;
+
+        protected RecordInfo(Class<?> clazz) throws ReflectiveOperationException {
+            Object[] components = (Object[]) CLASS_GET_RECORD_COMPONENTS.invoke(clazz);
+            int len = components.length;
+            names = new String[len];
+            defaults = new Object[len];
+            accessors = new MethodHandle[len];
+            Class[] types = new Class[len];
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for(int i=0;i<len;i++){
+                names[i] = (String) RECORD_COMPONENT_GET_NAME.invoke(components[i]);
+                types[i] = (Class) RECORD_COMPONENT_GET_TYPE.invoke(components[i]);
+                if(types[i].isPrimitive())
+                    defaults[i] = Array.get(Array.newInstance(types[i], 1), 0);
+                Method accessor = (Method) RECORD_COMPONENT_GET_ACCESSOR.invoke(components[i]);
+                if (!accessor.isAccessible()) accessor.setAccessible(true);
+                accessors[i] = lookup.unreflect(accessor).asType(MethodType.methodType(Object.class, Object.class));
+            }
+            Constructor c = clazz.getDeclaredConstructor(types);
+            if (!c.isAccessible()) c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c)
+                    .asSpreader(Object[].class, len)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        protected int indexOf(String name){
+            for(int i=0;i<names.length;i++){
+                if(names[i].equals(name))
+                    return i;
+            }
+            return -1;
+        }
+
+        protected Object get(int i, Object record){
+            try {
+                return (Object) accessors[i].invokeExact(record);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        protected Object newInstance(Object[] values){
+            try {
+                return (Object) constructor.invokeExact(values);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Emulated Java Serialization hooks, null if class does not use them.
+     * It is also null if hooks can not be emulated, in that case {@link ObjectOutputStream} is used.
+     */
+    protected final ClassValue<SerialHooks> serialHooks = new ClassValue<SerialHooks>() {
+        @Override
+        protected SerialHooks computeValue(Class<?> clazz) {
+            if(!classInfoCache.get(clazz).useObjectStream || clazz.isEnum() || isRecord(clazz))
+                return null;
+            return SerialHooks.make(clazz);
+        }
+    };
+
+    /**
+     * Java Serialization hooks ({@code writeObject()}, {@code readObject()}, {@code writeReplace()} and {@code readResolve()})
+     * of single class. Methods are resolved with the same rules as in {@link ObjectStreamClass}.
+     */
+    protected static final class SerialHooks{
+
+        /** {@code (Object)Object} handle, or null */
+        protected final MethodHandle writeReplace;
+        /** {@code (Object)Object} handle, or null */
+        protected final MethodHandle readResolve;
+        /** classes in hierarchy, starting from top-most {@code Serializable} superclass */
+        protected final Level[] levels;
+
+        private SerialHooks(MethodHandle writeReplace, MethodHandle readResolve, Level[] levels) {
+            this.writeReplace = writeReplace;
+            this.readResolve = readResolve;
+            this.levels = levels;
+        }
+
+        /**
+         * @param clazz class to analyze
+         * @return hooks or null if they can not be emulated
+         */
+        protected static SerialHooks make(Class<?> clazz){
+            try {
+                for(Class<?> c = clazz; c!=null; c = c.getSuperclass()){
+                    if(isPlatformClass(c) && (declaresMethod(c, "writeReplace") || declaresMethod(c, "readResolve")))
+                        return null;
+                }
+                List<Level> levels = new ArrayList<Level>();
+                for(Class<?> c = clazz; c!=null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+                    //private members of JDK classes are only accessible on Java 8,
+                    //binary format would depend on JVM, so JDK classes with state or hooks always use ObjectOutputStream
+                    if(isPlatformClass(c) && (ObjectStreamClass.lookup(c).getFields().length>0
+                            || declaresMethod(c, "writeObject", ObjectOutputStream.class)
+                            || declaresMethod(c, "readObject", ObjectInputStream.class)))
+                        return null;
+                    Level level = new Level(c);
+                    //data written by writeObject() can only be read by readObject() from the same class
+                    if ((level.writeObject == null) != (level.readObject == null))
+                        return null;
+                    levels.add(0, level);
+                }
+                return new SerialHooks(
+                        inheritableMethod(clazz, "writeReplace"),
+                        inheritableMethod(clazz, "readResolve"),
+                        levels.toArray(new Level[0]));
+            } catch (ReflectiveOperationException e) {
+                return null;
+            } catch (RuntimeException e) {
+                //private members of other modules are not accessible on Java 9+
+                return null;
+            }
+        }
+
+        private static boolean isPlatformClass(Class<?> clazz){
+            String name = clazz.getName();
+            return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                    || name.startsWith("sun.") || name.startsWith("com.sun.");
+        }
+
+        private static boolean declaresMethod(Class<?> clazz, String name, Class<?>... params){
+            try {
+                clazz.getDeclaredMethod(name, params);
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        private static MethodHandle inheritableMethod(Class<?> clazz, String name) throws IllegalAccessException {
+            Method m = null;
+            Class<?> defClass = clazz;
+            while (defClass != null) {
+                try {
+                    m = defClass.getDeclaredMethod(name);
+                    break;
+                } catch (NoSuchMethodException e) {
+                    defClass = defClass.getSuperclass();
+                }
+            }
+            if(m==null || m.getReturnType()!=Object.class)
+                return null;
+            int mods = m.getModifiers();
+            if(Modifier.isStatic(mods) || Modifier.isAbstract(mods))
+                return null;
+            if(Modifier.isPrivate(mods) && clazz!=defClass)
+                return null;
+            if(!Modifier.isPrivate(mods) && !Modifier.isPublic(mods) && !Modifier.isProtected(mods)
+                    && !packageName(clazz).equals(packageName(defClass)))
+                return null;
+            if (!m.isAccessible()) m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m).asType(MethodType.methodType(Object.class, Object.class));
+        }
+
+        private static String packageName(Class<?> clazz){
+            String name = clazz.getName();
+            int pos = name.lastIndexOf('.');
+            return pos==-1 ? "" : name.substring(0, pos);
+        }
+
+        protected Object invoke(MethodHandle h, Object obj) throws IOException {
+            try {
+                return (Object) h.invokeExact(obj);
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Single class in hierarchy, with its serializable fields and {@code writeObject()} and {@code readObject()} methods.
+         */
+        protected static final class Level{
+
+            protected final Class<?> clazz;
+            protected final ObjectStreamField[] fields;
+            /** reflection field for each serializable field, null if it does not exist (see {@code serialPersistentFields}) */
+            protected final Field[] reflectFields;
+            protected final Object[] defaults;
+            /** {@code (Object,ObjectOutputStream)void} handle, or null */
+            protected final MethodHandle writeObject;
+            /** {@code (Object,ObjectInputStream)void} handle, or null */
+            protected final MethodHandle readObject;
+
+            protected Level(Class<?> clazz) throws IllegalAccessException {
+                this.clazz = clazz;
+                fields = ObjectStreamClass.lookup(clazz).getFields();
+                reflectFields = new Field[fields.length];
+                defaults = new Object[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    if (fields[i].isPrimitive())
+                        defaults[i] = Array.get(Array.newInstance(fields[i].getType(), 1), 0);
+                    try {
+                        Field f = clazz.getDeclaredField(fields[i].getName());
+                        if (f.getType().isPrimitive() == fields[i].isPrimitive() && !Modifier.isStatic(f.getModifiers())) {
+                            if (!f.isAccessible()) f.setAccessible(true);
+                            reflectFields[i] = f;
+                        }
+                    } catch (NoSuchFieldException e) {
+                        //no field with given name, default value is used
+                    }
+                }
+                writeObject = privateMethod(clazz, "writeObject", ObjectOutputStream.class);
+                readObject = privateMethod(clazz, "readObject", ObjectInputStream.class);
+            }
+
+            private static MethodHandle privateMethod(Class<?> clazz, String name, Class<?> streamClass) throws IllegalAccessException {
+                Method m;
+                try {
+                    m = clazz.getDeclaredMethod(name, streamClass);
+                } catch (NoSuchMethodException e) {
+                    return null;
+                }
+                int mods = m.getModifiers();
+                if(m.getReturnType()!=Void.TYPE || !Modifier.isPrivate(mods) || Modifier.isStatic(mods))
+                    return null;
+                if (!m.isAccessible()) m.setAccessible(true);
+                return MethodHandles.lookup().unreflect(m).asType(MethodType.methodType(void.class, Object.class, streamClass));
+            }
+
+            protected int indexOf(String name){
+                for(int i=0;i<fields.length;i++){
+                    if(fields[i].getName().equals(name))
+                        return i;
+                }
+                return -1;
+            }
+
+            protected Object[] getValues(Object obj){
+                Object[] values = defaults.clone();
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        if (reflectFields[i] != null)
+                            values[i] = reflectFields[i].get(obj);
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException("Could not get value from field", e);
+                }
+                return values;
+            }
+
+            protected void setValues(Object obj, Object[] values){
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        if (reflectFields[i] != null)
+                            reflectFields[i].set(obj, values[i]);
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException("Could not set field value: ", e);
+                }
+            }
+        }
+    }
+
+    /* Record API is accessed with reflection, so Elsa still runs on Java 8 */
+    static private Method CLASS_IS_RECORD = null;
+    static private Method CLASS_GET_RECORD_COMPONENTS = null;
+    static private Method RECORD_COMPONENT_GET_NAME = null;
+    static private Method RECORD_COMPONENT_GET_TYPE = null;
+    static private Method RECORD_COMPONENT_GET_ACCESSOR = null;
+
+    static{
+        try{
+            Class<?> recordComponent = Class.forName("java.lang.reflect.RecordComponent");
+            RECORD_COMPONENT_GET_NAME = recordComponent.getMethod("getName");
+            RECORD_COMPONENT_GET_TYPE = recordComponent.getMethod("getType");
+            RECORD_COMPONENT_GET_ACCESSOR = recordComponent.getMethod("getAccessor");
+            CLASS_GET_RECORD_COMPONENTS = Class.class.getMethod("getRecordComponents");
+            CLASS_IS_RECORD = Class.class.getMethod("isRecord");
+        }catch(Exception e){
+            //older JVM without records, ignore
+        }
+    }
+
+    /**
+     * @param clazz class to check
+     * @return true if class is an Java Record, always false on JVMs older than Java 16
+     */
+    protected static boolean isRecord(Class<?> clazz){
+        if(CLASS_IS_RECORD==null)
+            return false;
+        try {
+            return (Boolean) CLASS_IS_RECORD.invoke(clazz);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ObjectStreamField[] makeFieldsForRecord(Class<?> clazz) {
+        try {
+            Object[] components = (Object[]) CLASS_GET_RECORD_COMPONENTS.invoke(clazz);
+            ObjectStreamField[] fields = new ObjectStreamField[components.length];
+            for(int i=0;i<components.length;i++){
+                fields[i] = new ObjectStreamField(
+                        (String) RECORD_COMPONENT_GET_NAME.invoke(components[i]),
+                        (Class) RECORD_COMPONENT_GET_TYPE.invoke(components[i]));
+            }
+            return fields;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     static protected Method sunConstructor = null;
     static protected Object sunReflFac = null;
     static protected Method androidConstructor = null;
@@ -615,7 +1490,8 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
     static{
         try{
-            Class<?> clazz = loadClassStaticUnchecked("sun.reflect.ReflectionFactory", Thread.currentThread().getContextClassLoader());
+            //on Java 9+ it is in 'jdk.unsupported' module, visible from classpath and exported
+            Class<?> clazz = Class.forName("sun.reflect.ReflectionFactory");
             if(clazz!=null){
                 Method getReflectionFactory = clazz.getMethod("getReflectionFactory");
                 sunReflFac = getReflectionFactory.invoke(null);
@@ -669,7 +1545,65 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
     }
 
 
-    protected static Map<Class<?>, Constructor<?>> class2constuctor = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+    /**
+     * Instantiators used to create class instances on deserialization.
+     * Instantiation strategy is resolved only once for each class, handle has type {@code ()Object}.
+     * It is attached to {@code Class} so class unloading is not blocked.
+     */
+    protected final ClassValue<MethodHandle> instantiators = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> clazz) {
+            try {
+                return makeInstantiator(clazz);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    /**
+     * Resolves method handle which creates new instance of given class, see {@link #createInstanceSkippinkConstructor(Class)}
+     *
+     * @param clazz class to instantiate
+     * @return method handle with type {@code ()Object}
+     * @throws ReflectiveOperationException if no instantiation strategy is available
+     */
+    protected static MethodHandle makeInstantiator(Class<?> clazz) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle h;
+        if (sunConstructor != null) {
+            //Sun specific way, serialization constructor is synthetic, so bind its newInstance method
+            Constructor<?> objDef = Object.class.getDeclaredConstructor();
+            Constructor<?> c = (Constructor<?>) sunConstructor.invoke(sunReflFac, clazz, objDef);
+            h = lookup.unreflect(CONSTRUCTOR_NEW_INSTANCE).bindTo(c);
+            h = MethodHandles.insertArguments(h, 0, (Object) new Object[0]);
+        } else if (androidConstructor != null) {
+            //android (harmony) specific way
+            h = MethodHandles.insertArguments(lookup.unreflect(androidConstructor), 0, clazz, Object.class);
+        } else if (androidConstructorGinger != null) {
+            //android (post ginger) specific way
+            h = MethodHandles.insertArguments(lookup.unreflect(androidConstructorGinger), 0, clazz, constructorId);
+        } else if (androidConstructorJelly != null) {
+            //android (post 4.2) specific way
+            h = MethodHandles.insertArguments(lookup.unreflect(androidConstructorJelly), 0, clazz, constructorId);
+        } else {
+            //try usual generic stuff which does not skip constructor
+            Constructor<?> c = clazz.getConstructor();
+            if (!c.isAccessible()) c.setAccessible(true);
+            h = lookup.unreflectConstructor(c);
+        }
+        return h.asType(MethodType.methodType(Object.class));
+    }
+
+    private static final Method CONSTRUCTOR_NEW_INSTANCE;
+
+    static {
+        try {
+            CONSTRUCTOR_NEW_INSTANCE = Constructor.class.getMethod("newInstance", Object[].class);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     /**
      * <p>
@@ -679,57 +1613,28 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
      *   Using proprietary API on Oracle JDK and OpenJDK
      *   sun.reflect.ReflectionFactory.getReflectionFactory().newConstructorForSerialization()
      *   more at http://www.javaspecialists.eu/archive/Issue175.html
+     *   On Java 9 and newer this class is provided by {@code jdk.unsupported} module.
      * </p><p>
      *   Using {@code ObjectInputStream.newInstance} on Android
      *   http://stackoverflow.com/a/3448384
      * </p><p>
      *   If non of these works we fallback into usual reflection which requires an no-arg constructor
+     * </p><p>
+     *   Strategy is resolved only once per class into {@link MethodHandle}, see {@link #instantiators}
      * </p>
      * @param <T> type of object
      * @param clazz class of object
      * @return instantiated object
      */
-    @SuppressWarnings("restriction")
-	protected <T> T createInstanceSkippinkConstructor(Class<T> clazz) {
-
+    protected <T> T createInstanceSkippinkConstructor(Class<T> clazz) {
+        MethodHandle h = instantiators.get(clazz);
         try {
-            if (sunConstructor != null) {
-                //Sun specific way
-                Constructor<?> intConstr = class2constuctor.get(clazz);
-
-                if (intConstr == null) {
-                    Constructor<?> objDef = Object.class.getDeclaredConstructor();
-                    intConstr = (Constructor<?>) sunConstructor.invoke(sunReflFac, clazz, objDef);
-                    class2constuctor.put(clazz, intConstr);
-                }
-
-                return (T) intConstr.newInstance();
-            } else if (androidConstructor != null) {
-                //android (harmony) specific way
-                return (T) androidConstructor.invoke(null, clazz, Object.class);
-            } else if (androidConstructorGinger != null) {
-                //android (post ginger) specific way
-                return (T) androidConstructorGinger.invoke(null, clazz, constructorId);
-            } else if (androidConstructorJelly != null) {
-                //android (post 4.2) specific way
-                return (T) androidConstructorJelly.invoke(null, clazz, constructorId);
-            } else {
-                //try usual generic stuff which does not skip constructor
-                Constructor<?> c = class2constuctor.get(clazz);
-                if (c == null) {
-                    c = clazz.getConstructor();
-                    if (!c.isAccessible()) c.setAccessible(true);
-                    class2constuctor.put(clazz, c);
-                }
-                return (T) c.newInstance();
-            }
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (InstantiationException e) {
+            return (T) (Object) h.invokeExact();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
             throw new RuntimeException(e);
         }
     }
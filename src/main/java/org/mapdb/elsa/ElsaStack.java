@@ -1,5 +1,8 @@
 package org.mapdb.elsa;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -77,6 +80,20 @@ public abstract class ElsaStack{
             return data[i];
         }
 
+        @Override
+        public void setInstance(int i, Object o) {
+            data[i] = o;
+        }
+
+        @Override
+        protected boolean reset() {
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+            forwardRefs = false;
+            super.reset();
+            return true;
+        }
+
     }
 
 
@@ -112,6 +129,23 @@ public abstract class ElsaStack{
         public Object getInstance(int i) {
             return reverse.get(i);
         }
+
+        @Override
+        public void setInstance(int i, Object o) {
+            Object old = reverse.set(i, o);
+            Integer oldPos = data.get(old);
+            if(oldPos!=null && oldPos==i)
+                data.remove(old);
+            data.put(o, i);
+        }
+
+        @Override
+        protected boolean reset() {
+            data.clear();
+            reverse.clear();
+            super.reset();
+            return true;
+        }
     }
 
     /** No backward references are resolved, no stack is maintained */
@@ -135,6 +169,16 @@ public abstract class ElsaStack{
         public Object getInstance(int i) {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void setInstance(int i, Object o) {
+        }
+
+        @Override
+        protected boolean reset() {
+            super.reset();
+            return true;
+        }
     }
 
 
@@ -143,13 +187,51 @@ public abstract class ElsaStack{
     public abstract int getSize();
     public abstract Object getInstance(int i);
 
+    /**
+     * Replaces object at given position. Used on deserialization, when an object can only be created
+     * after its content was deserialized. Its position is reserved with {@code add(null)}.
+     *
+     * @param i position on stack
+     * @param o new object at given position
+     */
+    public abstract void setInstance(int i, Object o);
+
+
+    /**
+     * Clears this stack, so it can be reused for next (de)serialization.
+     * Subclasses must clear their own content, call this method and return true.
+     * Default implementation does not know content of subclasses, so it returns false and stack is not reused.
+     *
+     * @return true if stack was cleared and can be reused
+     */
+    protected boolean reset(){
+        //class table is part of each stream, its content can not be shared between streams
+        if(classInfos!=null)
+            Arrays.fill(classInfos, 0, classInfosSize, null);
+        classInfosSize = 0;
+        if(classRefs!=null)
+            Arrays.fill(classRefs, 0, classRefsSize, null);
+        classRefsSize = 0;
+        if(stack!=null){
+            stack.clear();
+            curr.clear();
+        }
+        if(outputBridge!=null)
+            outputBridge.out = null;
+        if(inputBridge!=null)
+            inputBridge.in = null;
+        externalOutput = null;
+        externalInput = null;
+        hookDepth = 0;
+        reused = null;
+        return false;
+    }
 
     private ElsaSerializerPojo.ClassInfo[] classInfos = null;
+    private int classInfosSize = 0;
 
     public int resolveClassId(String clazzName) {
-        if(classInfos==null)
-            return -1;
-        for(int i=0;i<classInfos.length;i++){
+        for(int i=0;i<classInfosSize;i++){
             if(classInfos[i].name.equals(clazzName))
                 return i;
         }
@@ -158,18 +240,141 @@ public abstract class ElsaStack{
 
     public int addClassInfo(ElsaSerializerPojo.ClassInfo clazzInfo){
         if(classInfos==null)
-            classInfos = new ElsaSerializerPojo.ClassInfo[0];
+            classInfos = new ElsaSerializerPojo.ClassInfo[4];
+        else if(classInfos.length==classInfosSize)
+            classInfos = Arrays.copyOf(classInfos, classInfosSize*2);
 
-        int size = classInfos.length;
-        classInfos = Arrays.copyOf(classInfos, size+1);
-        classInfos[size] = clazzInfo;
-        return size;
+        classInfos[classInfosSize] = clazzInfo;
+        return classInfosSize++;
     }
 
     public ElsaSerializerPojo.ClassInfo resolveClassInfo(int classId) {
+        if(classId>=classInfosSize)
+            throw new ArrayIndexOutOfBoundsException(classId);
         return classInfos[classId];
     }
 
+    /* classes referenced by Object[] component types and Class values in local stream */
+    private Class[] classRefs = null;
+    private int classRefsSize = 0;
+
+    public int resolveClassRef(Class clazz) {
+        for(int i=0;i<classRefsSize;i++){
+            if(classRefs[i]==clazz)
+                return i;
+        }
+        return -1;
+    }
+
+    public int addClassRef(Class clazz){
+        if(classRefs==null)
+            classRefs = new Class[4];
+        else if(classRefs.length==classRefsSize)
+            classRefs = Arrays.copyOf(classRefs, classRefsSize*2);
+
+        classRefs[classRefsSize] = clazz;
+        return classRefsSize++;
+    }
+
+    public Class resolveClassRef(int classRefId) {
+        if(classRefId>=classRefsSize)
+            throw new ArrayIndexOutOfBoundsException(classRefId);
+        return classRefs[classRefId];
+    }
+
+    public int getClassRefCount(){
+        return classRefsSize;
+    }
+
+    /* bridges for Java Serialization fallback, reused within single (de)serialization */
+    private DataOutputBridge outputBridge = null;
+    private DataInputBridge inputBridge = null;
+
+    DataOutputBridge outputBridge(DataOutput out){
+        if(outputBridge==null)
+            outputBridge = new DataOutputBridge();
+        outputBridge.out = out;
+        return outputBridge;
+    }
+
+    DataInputBridge inputBridge(DataInput in){
+        if(inputBridge==null)
+            inputBridge = new DataInputBridge();
+        inputBridge.in = in;
+        return inputBridge;
+    }
+
+    /* streams passed to Externalizable objects, reused within single (de)serialization */
+    private ElsaObjectOutputStream externalOutput = null;
+    private ElsaObjectInputStream externalInput = null;
+
+    ElsaObjectOutputStream externalOutput(DataOutput out, ElsaSerializerPojo serializer) throws IOException {
+        if(externalOutput==null || externalOutput.out!=out || externalOutput.serializer!=serializer)
+            externalOutput = new ElsaObjectOutputStream(out, serializer);
+        return externalOutput;
+    }
+
+    ElsaObjectInputStream externalInput(DataInput in, ElsaSerializerPojo serializer) throws IOException {
+        if(externalInput==null || externalInput.input!=in || externalInput.serializer!=serializer)
+            externalInput = new ElsaObjectInputStream(in, serializer);
+        return externalInput;
+    }
+
+    /*
+     * streams passed to writeObject() and readObject() methods, one for each level of nested hooked objects,
+     * reused within single (de)serialization
+     */
+    private HookObjectOutputStream[] hookOutputs = null;
+    private HookObjectInputStream[] hookInputs = null;
+    private int hookDepth = 0;
+
+    /** @return stream for next level of nested {@code writeObject()} calls, must be followed by {@link #hookRelease()} */
+    HookObjectOutputStream hookOutput(ElsaSerializerPojo serializer) throws IOException {
+        if(hookOutputs==null)
+            hookOutputs = new HookObjectOutputStream[4];
+        else if(hookOutputs.length==hookDepth)
+            hookOutputs = Arrays.copyOf(hookOutputs, hookDepth*2);
+
+        HookObjectOutputStream ret = hookOutputs[hookDepth];
+        if(ret==null || ret.serializer!=serializer)
+            ret = hookOutputs[hookDepth] = new HookObjectOutputStream(serializer, this);
+        hookDepth++;
+        return ret;
+    }
+
+    /** @return stream for next level of nested {@code readObject()} calls, must be followed by {@link #hookRelease()} */
+    HookObjectInputStream hookInput(ElsaSerializerPojo serializer) throws IOException {
+        if(hookInputs==null)
+            hookInputs = new HookObjectInputStream[4];
+        else if(hookInputs.length==hookDepth)
+            hookInputs = Arrays.copyOf(hookInputs, hookDepth*2);
+
+        HookObjectInputStream ret = hookInputs[hookDepth];
+        if(ret==null || ret.serializer!=serializer)
+            ret = hookInputs[hookDepth] = new HookObjectInputStream(serializer, this);
+        hookDepth++;
+        return ret;
+    }
+
+    void hookRelease(){
+        hookDepth--;
+    }
+
+    /* instances refilled by current deserializeInto() */
+    private Set<Object> reused = null;
+
+    /**
+     * Marks existing instance as refilled by {@code deserializeInto()}.
+     *
+     * @param o instance to be refilled
+     * @return false if instance was already refilled, in that case new instance must be created
+     */
+    boolean reuse(Object o){
+        if(reused==null)
+            reused = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        return reused.add(o);
+    }
+
     private static final Object NULL = new Object();
 
     private Deque stack = null;
@@ -212,6 +417,11 @@ public abstract class ElsaStack{
     }
 
 
+    /** @return number of objects waiting on stack for serialization */
+    protected int stackSize(){
+        return stack==null ? 0 : stack.size();
+    }
+
     protected void stackFinish(){
         if(curr==null)
             return;
@@ -194,6 +194,30 @@ public final class ElsaUtil {
     }
 
 
+    /**
+     * Pack signed long into output. Value is zig-zag encoded, so small negative values also occupy small space.
+     *
+     * @param out DataOutput to put value into
+     * @param value to be serialized, can be negative
+     * @throws java.io.IOException in case of IO error
+     */
+    static public void packLongSigned(DataOutput out, long value) throws IOException {
+        packLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Unpack signed long written by {@link #packLongSigned(DataOutput, long)}.
+     *
+     * @param in The input stream.
+     * @return The long value.
+     * @throws java.io.IOException in case of IO error
+     */
+    static public long unpackLongSigned(DataInput in) throws IOException {
+        long v = unpackLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+
     /**
      * Serializes content of iterable to find unknown classes.
      * That can be passed to {@link ElsaMaker#registerClasses(Class[])}
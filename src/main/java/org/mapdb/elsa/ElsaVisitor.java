@@ -0,0 +1,119 @@
+package org.mapdb.elsa;
+
+/**
+ * <p>
+ * Receives events from {@link ElsaVisitorReader} while it reads Elsa binary data.
+ * Collections, maps, object arrays and POJOs are reported as start event, their elements (or fields) and end event.
+ * Other values are passed into single callback, Java objects are not created for containers and POJOs.
+ * </p><p>
+ * All methods have empty default implementation, so visitor only overrides events it needs.
+ * </p>
+ */
+public interface ElsaVisitor {
+
+    default void onNull(){
+    }
+
+    default void onBoolean(boolean value){
+    }
+
+    default void onByte(byte value){
+    }
+
+    default void onChar(char value){
+    }
+
+    default void onShort(short value){
+    }
+
+    default void onInt(int value){
+    }
+
+    default void onLong(long value){
+    }
+
+    default void onFloat(float value){
+    }
+
+    default void onDouble(double value){
+    }
+
+    default void onString(String value){
+    }
+
+    /**
+     * Value which is not reported by other methods, such as primitive array, {@code BigDecimal}, {@code Date}, enum,
+     * or collection which is not visited element by element (for example unmodifiable wrapper).
+     *
+     * @param value deserialized value
+     */
+    default void onValue(Object value){
+    }
+
+    /**
+     * Reference to collection, map, array or POJO which was already visited.
+     * Repeated value such as {@code String} or {@code Integer} is reported again by its own method.
+     *
+     * @param index position on object stack, values are numbered in order they were started, null values are not counted
+     */
+    default void onBackReference(int index){
+    }
+
+    /**
+     * Start of object array, followed by its elements and {@link #onEndArray()}
+     *
+     * @param componentType component type of array
+     * @param size number of elements
+     */
+    default void onStartArray(Class componentType, int size){
+    }
+
+    default void onEndArray(){
+    }
+
+    /**
+     * Start of collection, followed by its elements and {@link #onEndCollection()}.
+     * Sorted collections report their comparator (usually null) as first element.
+     *
+     * @param type class of collection, such as {@code ArrayList}
+     * @param size number of elements, not including comparator
+     */
+    default void onStartCollection(Class type, int size){
+    }
+
+    default void onEndCollection(){
+    }
+
+    /**
+     * Start of map, followed by key and value of each entry and {@link #onEndMap()}.
+     * Sorted maps report their comparator (usually null) before first key.
+     *
+     * @param type class of map, such as {@code HashMap}
+     * @param size number of entries
+     */
+    default void onStartMap(Class type, int size){
+    }
+
+    default void onEndMap(){
+    }
+
+    /**
+     * Start of POJO, followed by {@link #onPojoField(String)} and value for each field, and {@link #onEndPojo()}
+     *
+     * @param className name of POJO class, class is not loaded
+     * @param fieldCount number of fields
+     */
+    default void onStartPojo(String className, int fieldCount){
+    }
+
+    /**
+     * Name of POJO field, its value follows
+     *
+     * @param name field name
+     */
+    default void onPojoField(String name){
+    }
+
+    default void onEndPojo(){
+    }
+}
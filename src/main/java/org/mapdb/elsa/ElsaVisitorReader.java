@@ -0,0 +1,302 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mapdb.elsa.ElsaSerializerBase.Header;
+
+/**
+ * <p>
+ * Reads Elsa binary data and reports their content to {@link ElsaVisitor}.
+ * Collections, maps, object arrays (including chunked) and POJOs are not created, reader only walks their elements.
+ * It uses explicit stack, so depth of data is not limited by size of thread stack.
+ * </p><p>
+ * Other values are deserialized by serializer and passed to visitor.
+ * Backward references from such values to containers or POJOs, which were only visited, are deserialized as null.
+ * </p><p>
+ * POJOs are visited only if serializer is {@link ElsaSerializerPojo}.
+ * Externalizable objects, enums and classes which use Java Serialization are deserialized and passed to {@link ElsaVisitor#onValue(Object)}.
+ * </p><p>
+ * This class is thread safe, state of each read is local.
+ * </p>
+ */
+public class ElsaVisitorReader {
+
+    private static final int COLLECTION = 0;
+    private static final int MAP = 1;
+    private static final int ARRAY = 2;
+    private static final int POJO = 3;
+
+    protected final ElsaSerializerBase serializer;
+
+    /**
+     * @param serializer serializer used to resolve classes and to deserialize other values
+     */
+    public ElsaVisitorReader(ElsaSerializerBase serializer) {
+        this.serializer = serializer;
+    }
+
+    /** container which is being visited */
+    private static final class Frame{
+        final Frame parent;
+        final int kind;
+        /** number of values which were not read yet */
+        int remaining;
+        /** field names for POJO */
+        final String[] fields;
+
+        /** stack of outer stream, is set only for chunked collections */
+        ElsaStack outerStack;
+        /** number of values in one entry */
+        int step;
+        /** number of values left in current chunk */
+        int chunkRemaining = 0;
+
+        Frame(Frame parent, int kind, int remaining, String[] fields) {
+            if(remaining<0)
+                throw new ElsaException("Wrong container size: "+remaining);
+            this.parent = parent;
+            this.kind = kind;
+            this.remaining = remaining;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Reads single value (with all its content) from input and reports it to visitor.
+     *
+     * @param in read binary data from here
+     * @param visitor receives events
+     * @throws IOException an exception from underlying stream
+     */
+    public void read(DataInput in, ElsaVisitor visitor) throws IOException {
+        //stack is only used for positions and for values deserialized by serializer, so array is good enough
+        ElsaStack stack = new ElsaStack.IdentityArray();
+        Frame frame = null;
+        while(true){
+            if(frame!=null){
+                if(frame.remaining==0){
+                    end(frame, visitor);
+                    if(frame.outerStack!=null)
+                        stack = frame.outerStack;
+                    frame = frame.parent;
+                    if(frame==null)
+                        return;
+                    continue;
+                }
+                frame.remaining--;
+                if(frame.fields!=null)
+                    visitor.onPojoField(frame.fields[frame.fields.length - frame.remaining - 1]);
+                if(frame.outerStack!=null && frame.chunkRemaining-- == 0){
+                    //chunk is independent stream
+                    frame.chunkRemaining = ElsaUtil.unpackInt(in) * frame.step - 1;
+                    //byte size of chunk
+                    ElsaUtil.unpackInt(in);
+                    stack = new ElsaStack.IdentityArray();
+                    //position of chunked collection, it is never created
+                    stack.add(null);
+                }
+            }
+            Frame opened = readValue(in, visitor, stack, frame);
+            if(opened!=null)
+                frame = opened;
+            else if(frame==null)
+                return;
+        }
+    }
+
+    private static void end(Frame frame, ElsaVisitor visitor){
+        switch (frame.kind){
+            case COLLECTION: visitor.onEndCollection(); break;
+            case MAP: visitor.onEndMap(); break;
+            case ARRAY: visitor.onEndArray(); break;
+            default: visitor.onEndPojo();
+        }
+    }
+
+    /** reads value, returns frame if container was opened */
+    private Frame readValue(DataInput in, ElsaVisitor visitor, ElsaStack stack, Frame parent) throws IOException {
+        final int head = in.readUnsignedByte();
+        switch (head){
+            case Header.NULL:
+                visitor.onNull();
+                return null;
+            case Header.OBJECT_STACK: {
+                int index = ElsaUtil.unpackInt(in);
+                //visited containers and POJOs are not created, only their position is on stack
+                Object value = stack.getInstance(index);
+                if(value==null)
+                    visitor.onBackReference(index);
+                else
+                    dispatch(value, visitor);
+                return null;
+            }
+
+            case Header.ARRAYLIST: return startCollection(ArrayList.class, false, in, visitor, stack, parent);
+            case Header.LINKEDLIST: return startCollection(LinkedList.class, false, in, visitor, stack, parent);
+            case Header.HASHSET: return startCollection(HashSet.class, false, in, visitor, stack, parent);
+            case Header.LINKEDHASHSET: return startCollection(LinkedHashSet.class, false, in, visitor, stack, parent);
+            case Header.ARRAY_DEQUE: return startCollection(ArrayDeque.class, false, in, visitor, stack, parent);
+            case Header.COPY_ON_WRITE_ARRAYLIST: return startCollection(CopyOnWriteArrayList.class, false, in, visitor, stack, parent);
+            case Header.TREESET: return startCollection(TreeSet.class, true, in, visitor, stack, parent);
+            case Header.PRIORITY_QUEUE: return startCollection(PriorityQueue.class, true, in, visitor, stack, parent);
+            case Header.CONCURRENT_SKIPLIST_SET: return startCollection(ConcurrentSkipListSet.class, true, in, visitor, stack, parent);
+
+            case Header.HASHMAP: return startMap(HashMap.class, false, in, visitor, stack, parent);
+            case Header.LINKEDHASHMAP: return startMap(LinkedHashMap.class, false, in, visitor, stack, parent);
+            case Header.PROPERTIES: return startMap(Properties.class, false, in, visitor, stack, parent);
+            case Header.IDENTITY_HASHMAP: return startMap(IdentityHashMap.class, false, in, visitor, stack, parent);
+            case Header.WEAK_HASHMAP: return startMap(WeakHashMap.class, false, in, visitor, stack, parent);
+            case Header.CONCURRENT_HASHMAP: return startMap(ConcurrentHashMap.class, false, in, visitor, stack, parent);
+            case Header.TREEMAP: return startMap(TreeMap.class, true, in, visitor, stack, parent);
+            case Header.CONCURRENT_SKIPLIST_MAP: return startMap(ConcurrentSkipListMap.class, true, in, visitor, stack, parent);
+
+            case Header.ARRAY_OBJECT:
+            case Header.ARRAY_OBJECT_CLASS_REF:
+            case Header.ARRAY_OBJECT_ALL_NULL:
+            case Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF: {
+                int size = ElsaUtil.unpackInt(in);
+                Class componentType = head == Header.ARRAY_OBJECT || head == Header.ARRAY_OBJECT_ALL_NULL
+                        ? serializer.loadClassCachedUnchecked(in.readUTF())
+                        : serializer.deserializeClassRef(in, stack);
+                stack.add(null);
+                visitor.onStartArray(componentType, size);
+                if (head == Header.ARRAY_OBJECT || head == Header.ARRAY_OBJECT_CLASS_REF)
+                    return new Frame(parent, ARRAY, size, null);
+                for (int i = 0; i < size; i++)
+                    visitor.onNull();
+                visitor.onEndArray();
+                return null;
+            }
+
+            case Header.ARRAYLIST_CHUNKED:
+            case Header.ARRAY_OBJECT_CHUNKED:
+            case Header.HASHMAP_CHUNKED: {
+                int size = ElsaUtil.unpackInt(in);
+                Frame frame;
+                if(head==Header.ARRAYLIST_CHUNKED){
+                    visitor.onStartCollection(ArrayList.class, size);
+                    frame = new Frame(parent, COLLECTION, size, null);
+                    frame.step = 1;
+                }else if(head==Header.ARRAY_OBJECT_CHUNKED){
+                    visitor.onStartArray(serializer.loadClassCachedUnchecked(in.readUTF()), size);
+                    frame = new Frame(parent, ARRAY, size, null);
+                    frame.step = 1;
+                }else{
+                    visitor.onStartMap(HashMap.class, size);
+                    frame = new Frame(parent, MAP, size*2, null);
+                    frame.step = 2;
+                }
+                //number of chunks
+                ElsaUtil.unpackInt(in);
+                stack.add(null);
+                frame.outerStack = stack;
+                return frame;
+            }
+        }
+
+        if(serializer instanceof ElsaSerializerPojo
+                && (head==Header.POJO || head==Header.POJO_RESOLVER || head==Header.POJO_CLASSINFO || head==Header.POJO_REPLACED)){
+            return readPojo(head, in, visitor, stack, parent);
+        }
+
+        //other value is deserialized
+        int stackSize = stack.getSize();
+        ElsaSerializerBase.Deserializer deser = serializer.headerDeser[head];
+        Object value = deser != null
+                ? deser.deserialize(in, stack)
+                : serializer.openUnknownHeader(in, head, stack);
+        visitValue(in, value, stackSize, stack, visitor);
+        return null;
+    }
+
+    private Frame readPojo(int head, DataInput in, ElsaVisitor visitor, ElsaStack stack, Frame parent) throws IOException {
+        ElsaSerializerPojo pojo = (ElsaSerializerPojo) serializer;
+        if(head==Header.POJO_CLASSINFO){
+            int classId = ElsaUtil.unpackInt(in);
+            ElsaSerializerPojo.ClassInfo classInfo = pojo.classInfoDeserialize(in);
+            if(classId!=stack.addClassInfo(classInfo))
+                throw new ElsaException("Wrong Stream ClassInfo order");
+            //object which uses this Class Info follows
+            return readValue(in, visitor, stack, parent);
+        }
+        if(head==Header.POJO_REPLACED){
+            //position of replaced object, replacement follows
+            stack.add(null);
+            return readValue(in, visitor, stack, parent);
+        }
+
+        int classId = ElsaUtil.unpackInt(in);
+        ElsaSerializerPojo.ClassInfo classInfo = head==Header.POJO_RESOLVER
+                ? pojo.getClassInfo(classId)
+                : stack.resolveClassInfo(classId);
+        if(classId==-1 || classInfo.useObjectStream || classInfo.externalizable || classInfo.isEnum){
+            //can not be visited field by field
+            int stackSize = stack.getSize();
+            Object value = pojo.openPojo(in, classId, classInfo, null, stack);
+            visitValue(in, value, stackSize, stack, visitor);
+            return null;
+        }
+
+        stack.add(null);
+        int fieldCount = ElsaUtil.unpackInt(in);
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = classInfo.fields[ElsaUtil.unpackInt(in)].name;
+        }
+        visitor.onStartPojo(classInfo.name, fieldCount);
+        return new Frame(parent, POJO, fieldCount, fields);
+    }
+
+    private Frame startCollection(Class type, boolean comparator, DataInput in, ElsaVisitor visitor, ElsaStack stack, Frame parent) throws IOException {
+        int size = ElsaUtil.unpackInt(in);
+        stack.add(null);
+        visitor.onStartCollection(type, size);
+        return new Frame(parent, COLLECTION, comparator ? size + 1 : size, null);
+    }
+
+    private Frame startMap(Class type, boolean comparator, DataInput in, ElsaVisitor visitor, ElsaStack stack, Frame parent) throws IOException {
+        int size = ElsaUtil.unpackInt(in);
+        stack.add(null);
+        visitor.onStartMap(type, size);
+        return new Frame(parent, MAP, comparator ? size * 2 + 1 : size * 2, null);
+    }
+
+    private void visitValue(DataInput in, Object value, int stackSize, ElsaStack stack, ElsaVisitor visitor) throws IOException {
+        if(value instanceof ElsaSerializerBase.DeserFrame)
+            value = serializer.deserializeFrames(in, stack, (ElsaSerializerBase.DeserFrame) value);
+        if(value!=null && stack.getSize()==stackSize)
+            stack.add(value);
+        dispatch(value, visitor);
+    }
+
+    private static void dispatch(Object value, ElsaVisitor visitor){
+        if(value==null)
+            visitor.onNull();
+        else if(value instanceof String)
+            visitor.onString((String) value);
+        else if(value instanceof Integer)
+            visitor.onInt((Integer) value);
+        else if(value instanceof Long)
+            visitor.onLong((Long) value);
+        else if(value instanceof Double)
+            visitor.onDouble((Double) value);
+        else if(value instanceof Boolean)
+            visitor.onBoolean((Boolean) value);
+        else if(value instanceof Float)
+            visitor.onFloat((Float) value);
+        else if(value instanceof Short)
+            visitor.onShort((Short) value);
+        else if(value instanceof Byte)
+            visitor.onByte((Byte) value);
+        else if(value instanceof Character)
+            visitor.onChar((Character) value);
+        else
+            visitor.onValue(value);
+    }
+}
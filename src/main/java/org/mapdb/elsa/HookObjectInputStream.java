@@ -0,0 +1,377 @@
+package org.mapdb.elsa;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Used internally to emulate Java Serialization hooks ({@code readObject()} methods) without {@link ObjectInputStream}.
+ * Reads data written by {@link HookObjectOutputStream}.
+ * Each {@code readObject()} reads from its own block, data it does not read are skipped.
+ * Block is read directly from underlying input, it is not copied.
+ */
+final class HookObjectInputStream extends ObjectInputStream {
+
+    final ElsaSerializerPojo serializer;
+    /** underlying input, or block during {@code readObject()} call */
+    private DataInput in;
+    /** data written by current {@code writeObject()}, its input is null outside of {@code readObject()} call */
+    private final BlockInput block = new BlockInput();
+    private final DataInputStream blockIn = new DataInputStream(block);
+    private final ElsaStack objectStack;
+    /** object read by {@link #readLevels}, null outside of its call */
+    private Object current;
+
+    /** class currently read by {@code readObject()}, null outside of its call */
+    private ElsaSerializerPojo.SerialHooks.Level level;
+    private List<Validation> validations;
+
+    HookObjectInputStream(ElsaSerializerPojo serializer, ElsaStack objectStack)
+            throws IOException, SecurityException {
+        super();
+        this.serializer = serializer;
+        this.objectStack = objectStack;
+    }
+
+    /** reads data for each class in hierarchy, either by {@code readObject()} or by setting its fields */
+    void readLevels(DataInput in, Object current, ElsaSerializerPojo.SerialHooks hooks) throws IOException {
+        this.in = in;
+        this.current = current;
+        try {
+            readLevels(hooks);
+        } finally {
+            this.in = null;
+            this.current = null;
+            this.validations = null;
+        }
+    }
+
+    private void readLevels(ElsaSerializerPojo.SerialHooks hooks) throws IOException {
+        for (ElsaSerializerPojo.SerialHooks.Level l : hooks.levels) {
+            if (l.readObject == null) {
+                l.setValues(current, readFieldValues(l));
+                continue;
+            }
+            level = l;
+            DataInput parent = in;
+            block.in = parent;
+            block.remaining = ElsaUtil.unpackInt(parent);
+            in = blockIn;
+            try {
+                l.readObject.invokeExact(current, (ObjectInputStream) this);
+                //data not read by readObject()
+                block.skip(block.remaining);
+            } catch (IOException e) {
+                throw e;
+            } catch (ClassNotFoundException e) {
+                throw new ElsaException(e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            } finally {
+                in = parent;
+                block.in = null;
+                level = null;
+            }
+        }
+
+        if (validations != null) {
+            //higher priority first
+            Collections.sort(validations, new Comparator<Validation>() {
+                @Override
+                public int compare(Validation o1, Validation o2) {
+                    return o1.priority > o2.priority ? -1 : o1.priority < o2.priority ? 1 : 0;
+                }
+            });
+            for (Validation v : validations) {
+                v.callback.validateObject();
+            }
+        }
+    }
+
+    private Object[] readFieldValues(ElsaSerializerPojo.SerialHooks.Level l) throws IOException {
+        int size = ElsaUtil.unpackInt(in);
+        if (size != l.fields.length)
+            throw new InvalidClassException(l.clazz.getName(), "number of serializable fields has changed");
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = serializer.deserialize(in, objectStack);
+        }
+        return values;
+    }
+
+    private void checkActive() throws NotActiveException {
+        if (level == null)
+            throw new NotActiveException("not in call to readObject");
+    }
+
+    @Override
+    protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+        return serializer.deserialize(in, objectStack);
+    }
+
+    @Override
+    public Object readUnshared() throws IOException, ClassNotFoundException {
+        return readObjectOverride();
+    }
+
+    @Override
+    public void defaultReadObject() throws IOException, ClassNotFoundException {
+        checkActive();
+        level.setValues(current, readFieldValues(level));
+    }
+
+    @Override
+    public GetField readFields() throws IOException, ClassNotFoundException {
+        checkActive();
+        return new GetFieldImpl(level, readFieldValues(level));
+    }
+
+    @Override
+    public void registerValidation(ObjectInputValidation obj, int prio) throws NotActiveException, InvalidObjectException {
+        checkActive();
+        if (obj == null)
+            throw new InvalidObjectException("null callback");
+        if (validations == null)
+            validations = new ArrayList<Validation>();
+        validations.add(new Validation(obj, prio));
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (block.in != null)
+            return block.read();
+        return in.readUnsignedByte();
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (block.in != null)
+            return block.read(buf, off, len);
+        in.readFully(buf, off, len);
+        return len;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block.in == null ? 0 : block.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //underlying stream is still used after this object
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return in.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return in.readChar();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return in.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return in.readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return in.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return in.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return in.readDouble();
+    }
+
+    @Override
+    public void readFully(byte[] buf) throws IOException {
+        in.readFully(buf);
+    }
+
+    @Override
+    public void readFully(byte[] buf, int off, int len) throws IOException {
+        in.readFully(buf, off, len);
+    }
+
+    @Override
+    public int skipBytes(int len) throws IOException {
+        return in.skipBytes(len);
+    }
+
+    @Override
+    @Deprecated
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return in.readUTF();
+    }
+
+    /** data written by single {@code writeObject()} call, limited view of underlying input */
+    private static final class BlockInput extends InputStream {
+        DataInput in;
+        int remaining;
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (remaining <= 0)
+                return -1;
+            len = Math.min(len, remaining);
+            in.readFully(buf, off, len);
+            remaining -= len;
+            return len;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int len = (int) Math.max(0, Math.min(n, remaining));
+            for (int todo = len; todo > 0; ) {
+                int skipped = in.skipBytes(todo);
+                if (skipped <= 0) {
+                    //DataInput may skip less than requested
+                    in.readByte();
+                    skipped = 1;
+                }
+                todo -= skipped;
+            }
+            remaining -= len;
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, remaining);
+        }
+    }
+
+    private static final class Validation {
+        final ObjectInputValidation callback;
+        final int priority;
+
+        Validation(ObjectInputValidation callback, int priority) {
+            this.callback = callback;
+            this.priority = priority;
+        }
+    }
+
+    /** field values read by {@link #readFields()} */
+    private static final class GetFieldImpl extends GetField {
+
+        private final ElsaSerializerPojo.SerialHooks.Level level;
+        private final Object[] values;
+
+        GetFieldImpl(ElsaSerializerPojo.SerialHooks.Level level, Object[] values) {
+            this.level = level;
+            this.values = values;
+        }
+
+        private Object get(String name) {
+            int pos = level.indexOf(name);
+            if (pos == -1)
+                throw new IllegalArgumentException("no such field " + name);
+            return values[pos];
+        }
+
+        @Override
+        public ObjectStreamClass getObjectStreamClass() {
+            return ObjectStreamClass.lookup(level.clazz);
+        }
+
+        @Override
+        public boolean defaulted(String name) throws IOException {
+            get(name);
+            return false;
+        }
+
+        @Override
+        public boolean get(String name, boolean val) throws IOException {
+            return (Boolean) get(name);
+        }
+
+        @Override
+        public byte get(String name, byte val) throws IOException {
+            return (Byte) get(name);
+        }
+
+        @Override
+        public char get(String name, char val) throws IOException {
+            return (Character) get(name);
+        }
+
+        @Override
+        public short get(String name, short val) throws IOException {
+            return (Short) get(name);
+        }
+
+        @Override
+        public int get(String name, int val) throws IOException {
+            return (Integer) get(name);
+        }
+
+        @Override
+        public long get(String name, long val) throws IOException {
+            return (Long) get(name);
+        }
+
+        @Override
+        public float get(String name, float val) throws IOException {
+            return (Float) get(name);
+        }
+
+        @Override
+        public double get(String name, double val) throws IOException {
+            return (Double) get(name);
+        }
+
+        @Override
+        public Object get(String name, Object val) throws IOException {
+            return get(name);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.mapdb.elsa;
+
+import java.io.*;
+
+/**
+ * Used internally to emulate Java Serialization hooks ({@code writeObject()} methods) without {@link ObjectOutputStream}.
+ * Primitive data are written directly into {@link DataOutput}, objects and fields are serialized by Elsa.
+ * Data written by each {@code writeObject()} are prefixed by their length,
+ * so {@code readObject()} which does not read all data does not break following content.
+ */
+final class HookObjectOutputStream extends ObjectOutputStream {
+
+    final ElsaSerializerPojo serializer;
+    /** underlying output, or block buffer during {@code writeObject()} call */
+    private DataOutput out;
+    private final ElsaStack objectStack;
+    /** object written by {@link #writeLevels}, null outside of its call */
+    private Object current;
+
+    /** buffer for single {@code writeObject()} call, nested hooked objects are written by other stream */
+    private final Block block = new Block();
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+
+    /** class currently written by {@code writeObject()}, null outside of its call */
+    private ElsaSerializerPojo.SerialHooks.Level level;
+    private PutFieldImpl putField;
+
+    HookObjectOutputStream(ElsaSerializerPojo serializer, ElsaStack objectStack)
+            throws IOException, SecurityException {
+        super();
+        this.serializer = serializer;
+        this.objectStack = objectStack;
+    }
+
+    /** writes data for each class in hierarchy, either by {@code writeObject()} or by writing its fields */
+    void writeLevels(DataOutput out, Object current, ElsaSerializerPojo.SerialHooks hooks) throws IOException {
+        this.out = out;
+        this.current = current;
+        try {
+            writeLevels(hooks);
+        } finally {
+            this.out = null;
+            this.current = null;
+        }
+    }
+
+    private void writeLevels(ElsaSerializerPojo.SerialHooks hooks) throws IOException {
+        for (ElsaSerializerPojo.SerialHooks.Level l : hooks.levels) {
+            if (l.writeObject == null) {
+                writeFieldValues(l.getValues(current));
+                continue;
+            }
+            level = l;
+            putField = null;
+            DataOutput parent = out;
+            block.reset();
+            out = blockOut;
+            try {
+                l.writeObject.invokeExact(current, (ObjectOutputStream) this);
+                ElsaUtil.packInt(parent, block.size());
+                parent.write(block.buf(), 0, block.size());
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            } finally {
+                out = parent;
+                level = null;
+                putField = null;
+            }
+        }
+    }
+
+    private void writeFieldValues(Object[] values) throws IOException {
+        ElsaUtil.packInt(out, values.length);
+        for (Object value : values) {
+            serializer.serializeNested(out, value, objectStack);
+        }
+    }
+
+    private void checkActive() throws NotActiveException {
+        if (level == null)
+            throw new NotActiveException("not in call to writeObject");
+    }
+
+    @Override
+    protected void writeObjectOverride(Object obj) throws IOException {
+        serializer.serializeNested(out, obj, objectStack);
+    }
+
+    @Override
+    public void writeUnshared(Object obj) throws IOException {
+        writeObjectOverride(obj);
+    }
+
+    @Override
+    public void defaultWriteObject() throws IOException {
+        checkActive();
+        writeFieldValues(level.getValues(current));
+    }
+
+    @Override
+    public PutField putFields() throws IOException {
+        checkActive();
+        if (putField == null)
+            putField = new PutFieldImpl(level);
+        return putField;
+    }
+
+    @Override
+    public void writeFields() throws IOException {
+        if (putField == null)
+            throw new NotActiveException("no current PutField object");
+        writeFieldValues(putField.values);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("stream active");
+    }
+
+    @Override
+    public void useProtocolVersion(int version) throws IOException {
+        //there is no protocol
+    }
+
+    @Override
+    public void write(int val) throws IOException {
+        out.write(val);
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        out.write(buf);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        out.write(buf, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        //underlying stream is flushed after serialization is finished
+    }
+
+    @Override
+    public void close() throws IOException {
+        //underlying stream is still used after this object
+    }
+
+    @Override
+    public void writeBoolean(boolean val) throws IOException {
+        out.writeBoolean(val);
+    }
+
+    @Override
+    public void writeByte(int val) throws IOException {
+        out.writeByte(val);
+    }
+
+    @Override
+    public void writeShort(int val) throws IOException {
+        out.writeShort(val);
+    }
+
+    @Override
+    public void writeChar(int val) throws IOException {
+        out.writeChar(val);
+    }
+
+    @Override
+    public void writeInt(int val) throws IOException {
+        out.writeInt(val);
+    }
+
+    @Override
+    public void writeLong(long val) throws IOException {
+        out.writeLong(val);
+    }
+
+    @Override
+    public void writeFloat(float val) throws IOException {
+        out.writeFloat(val);
+    }
+
+    @Override
+    public void writeDouble(double val) throws IOException {
+        out.writeDouble(val);
+    }
+
+    @Override
+    public void writeBytes(String str) throws IOException {
+        out.writeBytes(str);
+    }
+
+    @Override
+    public void writeChars(String str) throws IOException {
+        out.writeChars(str);
+    }
+
+    @Override
+    public void writeUTF(String str) throws IOException {
+        out.writeUTF(str);
+    }
+
+    /** data written by single {@code writeObject()} call */
+    private static final class Block extends ByteArrayOutputStream {
+        byte[] buf() {
+            return buf;
+        }
+    }
+
+    /** collects field values, which are written by {@link #writeFields()} */
+    private final class PutFieldImpl extends PutField {
+
+        private final ElsaSerializerPojo.SerialHooks.Level level;
+        private final Object[] values;
+
+        PutFieldImpl(ElsaSerializerPojo.SerialHooks.Level level) {
+            this.level = level;
+            this.values = level.defaults.clone();
+        }
+
+        private void set(String name, Object value) {
+            int pos = level.indexOf(name);
+            if (pos == -1)
+                throw new IllegalArgumentException("no such field " + name);
+            values[pos] = value;
+        }
+
+        @Override
+        public void put(String name, boolean val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, byte val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, char val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, short val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, int val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, long val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, float val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, double val) {
+            set(name, val);
+        }
+
+        @Override
+        public void put(String name, Object val) {
+            set(name, val);
+        }
+
+        @Override
+        @Deprecated
+        public void write(ObjectOutput out) throws IOException {
+            if (out != HookObjectOutputStream.this)
+                throw new IllegalArgumentException("wrong stream");
+            writeFields();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElsaChannelTest {
+
+    ElsaSerializer ser = new ElsaMaker().make();
+
+    @Test
+    public void write_read() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ElsaChannelWriter w = new ElsaChannelWriter(ser, Channels.newChannel(bytes));
+        List<Object> objs = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            objs.add(i % 3 == 0 ? null : Arrays.asList("aa" + i, i, (long) i));
+        }
+        for (Object o : objs) {
+            w.write(o);
+        }
+        w.flush();
+        w.close();
+
+        ElsaChannelReader r = new ElsaChannelReader(ser, Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        for (Object o : objs) {
+            assertEquals(o, r.read());
+        }
+        try {
+            r.read();
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+        r.close();
+    }
+
+    @Test
+    public void concurrent_producers() throws Exception {
+        File f = File.createTempFile("elsa", "channel");
+        f.deleteOnExit();
+        FileChannel c = new RandomAccessFile(f, "rw").getChannel();
+        final ElsaChannelWriter w = new ElsaChannelWriter(ser, c, 16, 8, Executors.defaultThreadFactory());
+
+        final int threads = 4;
+        final int count = 1000;
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * count;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; i++) {
+                            w.write(base + i);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            thread.start();
+            producers.add(thread);
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        w.close();
+        assertFalse(c.isOpen());
+
+        ElsaChannelReader r = new ElsaChannelReader(ser, new RandomAccessFile(f, "r").getChannel());
+        Set<Object> read = new HashSet<Object>();
+        for (int i = 0; i < threads * count; i++) {
+            assertTrue(read.add(r.read()));
+        }
+        r.close();
+        for (int i = 0; i < threads * count; i++) {
+            assertTrue(read.contains(i));
+        }
+    }
+
+    @Test
+    public void close_concurrent_with_producers() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ElsaChannelWriter w = new ElsaChannelWriter(ser, Channels.newChannel(bytes), 4, 2, Executors.defaultThreadFactory());
+            final AtomicInteger accepted = new AtomicInteger();
+            List<Thread> producers = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; ; i++) {
+                                w.write(i);
+                                accepted.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            //writer was closed
+                        }
+                    }
+                };
+                thread.start();
+                producers.add(thread);
+            }
+            Thread.sleep(1);
+            w.close();
+            for (Thread t : producers) {
+                t.join();
+            }
+
+            //every accepted object was written
+            ElsaChannelReader r = new ElsaChannelReader(ser, Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+            int read = 0;
+            try {
+                while (true) {
+                    r.read();
+                    read++;
+                }
+            } catch (EOFException e) {
+                //expected
+            }
+            assertEquals(accepted.get(), read);
+        }
+    }
+
+    @Test
+    public void non_blocking_channel() throws Exception {
+        final Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        ElsaChannelWriter w = new ElsaChannelWriter(ser, pipe.sink());
+        final List<Object> read = new ArrayList<Object>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                ElsaChannelReader r = new ElsaChannelReader(ser, pipe.source());
+                try {
+                    while (true) {
+                        read.add(r.read());
+                    }
+                } catch (IOException e) {
+                    //end of stream
+                }
+            }
+        };
+        reader.start();
+        //more data than pipe buffer can hold
+        List<Object> objs = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            objs.add(TT.randomString(1000, i));
+        }
+        for (Object o : objs) {
+            w.write(o);
+        }
+        w.close();
+        reader.join();
+        assertEquals(objs, read);
+    }
+
+    @Test
+    public void max_frame_length() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ElsaChannelWriter w = new ElsaChannelWriter(ser, Channels.newChannel(bytes));
+        w.write(TT.randomString(1000, 1));
+        w.close();
+
+        ElsaChannelReader r = new ElsaChannelReader(ser, Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), 100);
+        try {
+            r.read();
+            fail();
+        } catch (StreamCorruptedException e) {
+            //expected
+        }
+
+        //corrupted length does not allocate memory
+        byte[] corrupted = new byte[]{0x7F, -1, -1, -1, 1, 2, 3};
+        r = new ElsaChannelReader(ser, Channels.newChannel(new ByteArrayInputStream(corrupted)));
+        try {
+            r.read();
+            fail();
+        } catch (StreamCorruptedException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void closed() throws IOException {
+        ElsaChannelWriter w = new ElsaChannelWriter(ser, Channels.newChannel(new ByteArrayOutputStream()));
+        w.close();
+        try {
+            w.write("aa");
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ElsaCollectionIteratorTest {
+
+    ElsaSerializerPojo ser = new ElsaMaker().make();
+
+    <E> ElsaCollectionIterator<E> iter(ElsaSerializerPojo ser, Object o) throws IOException {
+        byte[] b = TT.serialize(ser, o);
+        return ser.deserializeIterator(new DataInputStream(new ByteArrayInputStream(b)));
+    }
+
+    static List toList(Iterator iter){
+        List ret = new ArrayList();
+        while(iter.hasNext())
+            ret.add(iter.next());
+        return ret;
+    }
+
+    @Test
+    public void collections() throws IOException {
+        List<Object> l = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            l.add(i % 10 == 0 ? null : Arrays.asList("a" + i, i));
+        }
+        //shared element is backward reference
+        l.add(l.get(1));
+
+        assertEquals(l, toList(iter(ser, new ArrayList(l))));
+        assertEquals(l, toList(iter(ser, new LinkedList(l))));
+        assertEquals(l.subList(1, 10), toList(iter(ser, new ArrayDeque(l.subList(1, 10)))));
+        assertEquals(l, toList(iter(ser, l.toArray())));
+        assertEquals(new HashSet(l), new HashSet(toList(iter(ser, new HashSet(l)))));
+
+        TreeSet<Object> set = new TreeSet<Object>(Collections.reverseOrder());
+        set.addAll(Arrays.asList(1, 3, 2));
+        assertEquals(Arrays.asList(3, 2, 1), toList(iter(ser, set)));
+
+        ElsaCollectionIterator iter = iter(ser, new String[3]);
+        assertEquals(3, iter.size());
+        assertEquals(Arrays.asList(null, null, null), toList(iter));
+        assertFalse(iter(ser, new ArrayList()).hasNext());
+    }
+
+    @Test
+    public void maps() throws IOException {
+        TreeMap<Object, Object> map = new TreeMap<Object, Object>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+        List<Map.Entry> entries = toList(iter(ser, map));
+        assertEquals(new ArrayList(map.entrySet()), entries);
+
+        entries = toList(iter(ser, new HashMap(map)));
+        Map map2 = new TreeMap();
+        for (Map.Entry e : entries) {
+            map2.put(e.getKey(), e.getValue());
+        }
+        assertEquals(map, map2);
+    }
+
+    @Test
+    public void stream() throws IOException {
+        List<Object> l = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            l.add(i);
+        }
+        ElsaCollectionIterator<Integer> iter = iter(ser, l);
+        assertEquals(1000, iter.size());
+        assertEquals(999 * 500, iter.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void chunked() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ElsaSerializerPojo ser = new ElsaMaker().parallel(pool, 64).make();
+            ArrayList<Object> l = new ArrayList<Object>();
+            HashMap<Object, Object> map = new HashMap<Object, Object>();
+            for (int i = 0; i < 1000; i++) {
+                l.add(new IntBean(i));
+                map.put(i, "a" + i);
+            }
+            assertEquals(l, toList(iter(ser, l)));
+            assertEquals(l, toList(iter(ser, l.toArray(new IntBean[0]))));
+            assertEquals(new HashSet(map.entrySet()), new HashSet(toList(iter(ser, map))));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = ElsaException.class)
+    public void notCollection() throws IOException {
+        iter(ser, "aa");
+    }
+}
@@ -3,14 +3,25 @@ package org.mapdb.elsa;
 import org.fest.reflect.core.Reflection;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ElsaMakerTest {
 
@@ -99,4 +110,281 @@ public class ElsaMakerTest {
         Object stack = Reflection.method("newElsaStack").withReturnType(ElsaStack.class).in(ser).invoke();
         assertTrue(stack instanceof ElsaStack.IdentityArray);
     }
+
+    @Test public void parallel() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ElsaSerializerPojo ser = new ElsaMaker().parallel(pool, 64).make();
+
+            ArrayList list = new ArrayList();
+            String[] array = new String[1000];
+            HashMap map = new HashMap();
+            for (int i = 0; i < 1000; i++) {
+                list.add(new IntBean(i));
+                array[i] = "a" + i;
+                map.put(i, new IntBean(i));
+            }
+            list.add(null);
+
+            assertEquals(ElsaSerializerBase.Header.ARRAYLIST_CHUNKED, TT.serialize(ser, list)[0]&0xFF);
+            assertEquals(list, ser.clone(list));
+            assertTrue(Arrays.equals(array, ser.clone(array)));
+            assertEquals(String[].class, ser.clone(array).getClass());
+            assertEquals(map, ser.clone(map));
+
+            //chunked data are readable with or without parallel decoding
+            byte[] b = TT.serialize(ser, map);
+            assertEquals(map, new ElsaMaker().make().deserialize(new DataInputStream(new ByteArrayInputStream(b))));
+            assertEquals(map, ser.deserialize(new DataInputStream(new ByteArrayInputStream(b))));
+
+            //small collection is not chunked
+            ArrayList small = new ArrayList(list.subList(0, 10));
+            assertEquals(ElsaSerializerBase.Header.ARRAYLIST, TT.serialize(ser, small)[0]&0xFF);
+            assertEquals(small, ser.clone(small));
+        }finally {
+            pool.shutdown();
+        }
+    }
+
+    static class OwnedNode implements Serializable {
+        int value;
+        Object owner;
+    }
+
+    @Test public void parallelBackReferenceToCollection() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ElsaSerializerPojo ser = new ElsaMaker().parallel(pool, 100).make();
+
+            ArrayList list = new ArrayList();
+            OwnedNode[] array = new OwnedNode[5000];
+            HashMap map = new HashMap();
+            for (int i = 0; i < 5000; i++) {
+                OwnedNode n = new OwnedNode();
+                n.value = i;
+                n.owner = list;
+                list.add(n);
+
+                array[i] = new OwnedNode();
+                array[i].owner = array;
+
+                OwnedNode n2 = new OwnedNode();
+                n2.owner = map;
+                map.put(i, n2);
+            }
+
+            //collection is not written again in every chunk
+            byte[] chunked = TT.serialize(ser, list);
+            assertEquals(ElsaSerializerBase.Header.ARRAYLIST_CHUNKED, chunked[0]&0xFF);
+            assertTrue(chunked.length < 2 * TT.serialize(new ElsaMaker().make(), list).length);
+
+            ArrayList list2 = (ArrayList) ser.deserialize(new DataInputStream(new ByteArrayInputStream(chunked)));
+            assertEquals(5000, list2.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i, ((OwnedNode) list2.get(i)).value);
+                assertTrue(((OwnedNode) list2.get(i)).owner == list2);
+            }
+            //sequential decoding
+            list2 = (ArrayList) new ElsaMaker().make().deserialize(new DataInputStream(new ByteArrayInputStream(chunked)));
+            assertTrue(((OwnedNode) list2.get(4999)).owner == list2);
+
+            OwnedNode[] array2 = ser.clone(array);
+            for (OwnedNode n : array2)
+                assertTrue(n.owner == array2);
+
+            HashMap map2 = ser.clone(map);
+            assertEquals(5000, map2.size());
+            for (Object n : map2.values())
+                assertTrue(((OwnedNode) n).owner == map2);
+        }finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void growableResolver() throws Exception {
+        ElsaClassInfoResolver.Growable resolver = new ElsaClassInfoResolver.Growable(null);
+        ElsaSerializerPojo ser = new ElsaMaker().classInfoResolver(resolver).make();
+
+        Serialization2Bean bean = new Serialization2Bean();
+        byte[] inline = TT.serialize(new ElsaMaker().make(), bean);
+        byte[] compact = TT.serialize(ser, bean);
+        //class is registered on first use, class info is never written into stream
+        assertEquals(ElsaSerializerBase.Header.POJO_RESOLVER, compact[0]&0xFF);
+        assertTrue(compact.length < inline.length);
+        assertEquals(0, resolver.classToId(Serialization2Bean.class.getName()));
+        assertEquals(compact.length, TT.serialize(ser, bean).length);
+
+        //other serializer with the same resolver can read data
+        ElsaSerializerPojo ser2 = new ElsaMaker().classInfoResolver(resolver).make();
+        assertEquals(bean, ser2.deserialize(new DataInputStream(new ByteArrayInputStream(compact))));
+        assertEquals(bean, ElsaSerializerBaseTest.clonePojo(bean, ser));
+    }
+
+    @Test
+    public void growableResolverConcurrent() throws Exception {
+        final ElsaClassInfoResolver.Growable resolver = new ElsaClassInfoResolver.Growable(null);
+        final Class[] classes = new Class[]{Serialization2Bean.class, Serialized2DerivedBean.class, IntBean.class, String2.class};
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < classes.length; i++) {
+                        resolver.register(classes[(i + offset) % classes.length]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        //every class has single stable ID
+        ElsaSerializerPojo.ClassInfo[] infos = resolver.getClassInfos();
+        assertEquals(classes.length, infos.length);
+        for (int i = 0; i < infos.length; i++) {
+            assertEquals(i, resolver.classToId(infos[i].name));
+            assertEquals(i, resolver.register(Class.forName(infos[i].name)));
+        }
+    }
+
+    @Test
+    public void fileResolver() throws Exception {
+        File f = File.createTempFile("elsa", "catalog");
+        f.delete();
+        f.deleteOnExit();
+        Serialization2Bean bean = new Serialization2Bean();
+
+        ElsaClassInfoResolver.FileBased resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        byte[] b = TT.serialize(new ElsaMaker().classInfoResolver(resolver).make(), bean);
+        assertEquals(ElsaSerializerBase.Header.POJO_RESOLVER, b[0]&0xFF);
+
+        //other process appends to the same file
+        runRegister(f, IntBean.class);
+        assertEquals(IntBean.class.getName(), resolver.getClassInfo(1).name);
+        assertEquals(1, resolver.register(IntBean.class));
+        resolver.close();
+
+        //reopen after restart
+        resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        assertEquals(2, resolver.getClassInfos().length);
+        ElsaSerializerPojo ser = new ElsaMaker().classInfoResolver(resolver).make();
+        assertEquals(bean, ser.deserialize(new DataInputStream(new ByteArrayInputStream(b))));
+        assertTrue(Arrays.equals(b, TT.serialize(ser, bean)));
+        resolver.close();
+    }
+
+    /** registers class in file resolver, runs in separate process */
+    public static class RegisterMain {
+        public static void main(String[] args) throws Exception {
+            ElsaClassInfoResolver.FileBased resolver = new ElsaClassInfoResolver.FileBased(new File(args[0]), null);
+            resolver.register(Class.forName(args[1]));
+            resolver.close();
+        }
+    }
+
+    static void runRegister(File f, Class clazz) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                RegisterMain.class.getName(), f.getPath(), clazz.getName())
+                .inheritIO()
+                .start();
+        assertEquals(0, p.waitFor());
+    }
+
+    static class Evolved implements Serializable {
+        int a;
+        String b;
+    }
+
+    @Test
+    public void fileResolver_class_changed() throws Exception {
+        File f = File.createTempFile("elsa", "catalog");
+        f.delete();
+        f.deleteOnExit();
+
+        //older version of class had field 'gone' and did not have field 'b'
+        ElsaClassInfoResolver.FileBased resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        ElsaSerializerPojo.ClassInfo old = new ElsaSerializerPojo.ClassInfo(Evolved.class.getName(),
+                new ElsaSerializerPojo.FieldInfo[]{
+                        new ElsaSerializerPojo.FieldInfo("a", true, "int", Evolved.class),
+                        new ElsaSerializerPojo.FieldInfo("gone", true, "int", Evolved.class)},
+                false, false, false);
+        assertEquals(0, resolver.append(old));
+        resolver.close();
+
+        //reopen with current version of class
+        resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        ElsaSerializerPojo ser = new ElsaMaker().classInfoResolver(resolver).make();
+
+        //data written by older version
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(ElsaSerializerBase.Header.POJO_RESOLVER);
+        ElsaUtil.packInt(out, 0);
+        ElsaUtil.packInt(out, 2);
+        ElsaUtil.packInt(out, 0);
+        ElsaUtil.packInt(out, 1);
+        ser.serialize(out, 5);
+        ser.serialize(out, 7);
+        byte[] oldData = bytes.toByteArray();
+
+        Evolved e = (Evolved) ser.deserialize(new DataInputStream(new ByteArrayInputStream(oldData)));
+        assertEquals(5, e.a);
+        assertEquals(null, e.b);
+
+        //current version is stored under new class ID
+        e.b = "bb";
+        Evolved e2 = ser.clone(e);
+        assertEquals(5, e2.a);
+        assertEquals("bb", e2.b);
+        assertEquals(1, resolver.classToId(Evolved.class.getName()));
+        resolver.close();
+
+        resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        ser = new ElsaMaker().classInfoResolver(resolver).make();
+        assertEquals(1, resolver.classToId(Evolved.class.getName()));
+        assertEquals(5, ((Evolved) ser.deserialize(new DataInputStream(new ByteArrayInputStream(oldData)))).a);
+        resolver.close();
+    }
+
+    @Test
+    public void fileResolver_unknown_class_and_crash() throws Exception {
+        File f = File.createTempFile("elsa", "catalog");
+        f.delete();
+        f.deleteOnExit();
+
+        //class which is not on classpath of this process
+        ElsaClassInfoResolver.FileBased resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        resolver.append(new ElsaSerializerPojo.ClassInfo("com.example.Missing",
+                new ElsaSerializerPojo.FieldInfo[]{new ElsaSerializerPojo.FieldInfo("x", true, "int", Object.class)},
+                false, false, false));
+        resolver.close();
+        long size = f.length();
+
+        //incomplete entry left by crashed process
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        out.close();
+
+        //class is not loaded, until its class ID is used
+        resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        assertEquals(size, f.length());
+        assertEquals(0, resolver.classToId("com.example.Missing"));
+        assertEquals(1, resolver.register(IntBean.class));
+        resolver.close();
+
+        resolver = new ElsaClassInfoResolver.FileBased(f, null);
+        assertEquals(1, resolver.classToId(IntBean.class.getName()));
+        assertEquals(IntBean.class.getName(), resolver.getClassInfo(1).name);
+        try {
+            resolver.getClassInfo(0);
+            fail();
+        } catch (ElsaException.ClassNotFound e) {
+            //expected
+        }
+        resolver.close();
+    }
 }
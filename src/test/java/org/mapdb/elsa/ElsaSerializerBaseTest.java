@@ -21,8 +21,14 @@ import java.io.*;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.*;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.junit.Assert.*;
 
@@ -356,6 +362,400 @@ public class ElsaSerializerBaseTest {
         assertEquals(d, clone((d)));
     }
 
+    @Test public void testJavaTime() throws IOException{
+        Object[] values = new Object[]{
+                Instant.ofEpochSecond(1500000000L, 123456789),
+                Instant.ofEpochSecond(-1000L, 1),
+                Instant.MIN, Instant.MAX,
+                LocalDate.of(2017, 7, 14), LocalDate.of(-5, 1, 1), LocalDate.MIN, LocalDate.MAX,
+                LocalTime.of(23, 59, 59, 999999999), LocalTime.MIDNIGHT,
+                LocalDateTime.of(2017, 7, 14, 2, 40, 0, 1), LocalDateTime.MIN, LocalDateTime.MAX,
+                OffsetDateTime.of(2017, 7, 14, 2, 40, 0, 1, ZoneOffset.ofHours(-5)),
+                ZonedDateTime.of(2017, 7, 14, 2, 40, 0, 1, ZoneId.of("Europe/Prague")),
+                ZonedDateTime.of(2017, 7, 14, 2, 40, 0, 1, ZoneOffset.UTC),
+                //overlap at end of daylight saving, later offset must be preserved
+                ZonedDateTime.of(2017, 10, 29, 2, 30, 0, 0, ZoneId.of("Europe/Prague")).withLaterOffsetAtOverlap(),
+                Duration.ofSeconds(-10, 5), Duration.ZERO, Duration.ofDays(10000),
+                ZoneId.of("Europe/Prague"), ZoneOffset.ofHoursMinutes(5, 30), ZoneId.of("UTC+01:00")
+        };
+        for(Object o:values){
+            assertEquals(o, clone(o));
+        }
+
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        assertEquals(ElsaSerializerBase.Header.INSTANT, TT.serialize(ser, values[0])[0]&0xFF);
+        assertTrue(TT.serialize(ser, values[0]).length<=10);
+        assertEquals(4, TT.serialize(ser, LocalDate.of(2017, 7, 14)).length);
+    }
+
+    @Test public void testConcurrentCollections() throws IOException{
+        ConcurrentHashMap<Object,Object> chm = new ConcurrentHashMap<Object, Object>();
+        ConcurrentSkipListMap<Object,Object> cslm = new ConcurrentSkipListMap<Object, Object>();
+        ConcurrentSkipListMap<Object,Object> cslmReverse = new ConcurrentSkipListMap<Object, Object>(Collections.reverseOrder());
+        ConcurrentSkipListSet<Object> csls = new ConcurrentSkipListSet<Object>(Collections.reverseOrder());
+        CopyOnWriteArrayList<Object> cowal = new CopyOnWriteArrayList<Object>();
+        for(int i=0;i<1000;i++){
+            chm.put(i, "v"+i);
+            cslm.put("k"+i, i);
+            cslmReverse.put(i, "v"+i);
+            csls.add("k"+i);
+            cowal.add(i%10==0? null : "v"+i);
+        }
+
+        ConcurrentSkipListMap cslm2 = clone(cslm);
+        assertEquals(cslm, cslm2);
+        assertEquals(cslm.firstKey(), cslm2.firstKey());
+        ConcurrentSkipListMap cslmReverse2 = clone(cslmReverse);
+        assertEquals(cslmReverse, cslmReverse2);
+        assertEquals(999, cslmReverse2.firstKey());
+        ConcurrentSkipListSet csls2 = clone(csls);
+        assertEquals(csls, csls2);
+        assertEquals(csls.first(), csls2.first());
+        assertEquals(chm, clone(chm));
+        assertEquals(ConcurrentHashMap.class, clone(chm).getClass());
+        assertEquals(cowal, clone(cowal));
+        assertEquals(CopyOnWriteArrayList.class, clone(cowal).getClass());
+
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        assertEquals(ElsaSerializerBase.Header.CONCURRENT_HASHMAP, TT.serialize(ser, chm)[0]&0xFF);
+        assertEquals(ElsaSerializerBase.Header.CONCURRENT_SKIPLIST_MAP, TT.serialize(ser, cslm)[0]&0xFF);
+        assertEquals(ElsaSerializerBase.Header.CONCURRENT_SKIPLIST_SET, TT.serialize(ser, csls)[0]&0xFF);
+        assertEquals(ElsaSerializerBase.Header.COPY_ON_WRITE_ARRAYLIST, TT.serialize(ser, cowal)[0]&0xFF);
+
+        //self reference
+        chm.put("self", chm);
+        ConcurrentHashMap chm2 = clone(chm);
+        assertTrue(chm2 == chm2.get("self"));
+        cowal.add(cowal);
+        CopyOnWriteArrayList cowal2 = clone(cowal);
+        assertTrue(cowal2 == cowal2.get(cowal2.size()-1));
+    }
+
+    public static class SetEntry implements Serializable, Comparable<SetEntry>{
+        int i;
+        Object owner;
+
+        @Override
+        public int compareTo(SetEntry o) {
+            return Integer.compare(i, o.i);
+        }
+    }
+
+    @Test public void testConcurrentSkipListSelfReference() throws IOException{
+        ConcurrentSkipListMap<Object,Object> cslm = new ConcurrentSkipListMap<Object, Object>();
+        cslm.put("a", 1);
+        cslm.put("self", new ArrayList<Object>(Arrays.asList(cslm)));
+        ConcurrentSkipListMap cslm2 = clone(cslm);
+        assertEquals(1, cslm2.get("a"));
+        assertTrue(cslm2 == ((List) cslm2.get("self")).get(0));
+
+        ConcurrentSkipListSet<SetEntry> csls = new ConcurrentSkipListSet<SetEntry>();
+        for(int i=0;i<3;i++){
+            SetEntry e = new SetEntry();
+            e.i = i;
+            e.owner = csls;
+            csls.add(e);
+        }
+        ConcurrentSkipListSet<SetEntry> csls2 = clone(csls);
+        assertEquals(3, csls2.size());
+        for(SetEntry e:csls2)
+            assertTrue(csls2 == e.owner);
+    }
+
+    @Test public void testCollectionWrappers() throws Exception{
+        List<Object> list = new ArrayList<Object>(Arrays.asList("a", 1, null, 2L));
+        Map<Object,Object> map = new LinkedHashMap<Object, Object>();
+        map.put("a", 1);
+        map.put(2, null);
+        TreeSet<Object> set = new TreeSet<Object>(Collections.reverseOrder());
+        set.addAll(Arrays.asList("a", "b", "c"));
+        TreeMap<Object,Object> sortedMap = new TreeMap<Object, Object>(Collections.reverseOrder());
+        sortedMap.put("a", 1);
+        sortedMap.put("b", 2);
+
+        List<Object> values = new ArrayList<Object>(Arrays.asList(
+                Collections.emptyList(), Collections.emptySet(), Collections.emptyMap(),
+                Collections.singletonList("a"), Collections.singleton(null), Collections.singletonMap("a", 1),
+                Collections.unmodifiableCollection(list), Collections.unmodifiableList(list),
+                Collections.unmodifiableList(new LinkedList<Object>(list)),
+                Collections.unmodifiableSet(new LinkedHashSet<Object>(list)),
+                Collections.unmodifiableSortedSet(set), Collections.unmodifiableNavigableSet(set),
+                Collections.unmodifiableMap(map), Collections.unmodifiableSortedMap(sortedMap),
+                Collections.unmodifiableNavigableMap(sortedMap),
+                Collections.synchronizedCollection(list), Collections.synchronizedList(list),
+                Collections.synchronizedList(new LinkedList<Object>(list)),
+                Collections.synchronizedSet(new LinkedHashSet<Object>(list)),
+                Collections.synchronizedSortedSet(set), Collections.synchronizedNavigableSet(set),
+                Collections.synchronizedMap(map), Collections.synchronizedSortedMap(sortedMap),
+                Collections.synchronizedNavigableMap(sortedMap),
+                Arrays.asList("a", null, 1), Arrays.asList()
+        ));
+        try {
+            //Java 9 factories
+            values.add(List.class.getMethod("of", Object[].class).invoke(null, (Object) new Object[]{"a", 1, 2L}));
+            values.add(List.class.getMethod("of", Object[].class).invoke(null, (Object) new Object[]{"a"}));
+            values.add(Set.class.getMethod("of", Object[].class).invoke(null, (Object) new Object[]{"a", 1, 2L}));
+            values.add(Map.class.getMethod("of", Object.class, Object.class).invoke(null, "a", 1));
+        }catch(NoSuchMethodException e){
+            //Java 8
+        }
+
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        for(Object o:values){
+            assertEquals(ElsaSerializerBase.Header.COLLECTION_WRAPPER, TT.serialize(ser, o)[0]&0xFF);
+            Object o2 = clone(o);
+            if(o instanceof List || o instanceof Set || o instanceof Map)
+                assertEquals(o, o2);
+            else //plain collection wrapper has identity equals
+                assertEquals(new ArrayList((Collection) o), new ArrayList((Collection) o2));
+            assertEquals(o.getClass(), o2.getClass());
+            if(o instanceof SortedSet)
+                assertEquals(((SortedSet)o).comparator(), ((SortedSet)o2).comparator());
+            if(o instanceof SortedMap)
+                assertEquals(((SortedMap)o).comparator(), ((SortedMap)o2).comparator());
+        }
+        assertTrue(Collections.emptyList() == clone(Collections.emptyList()));
+        assertEquals(3, TT.serialize(ser, Collections.singletonList(1)).length);
+        //header, kind, wrapped Arrays.asList()
+        assertEquals(7, TT.serialize(ser, Collections.unmodifiableList(Arrays.asList(1, 2))).length);
+    }
+
+    @Test public void testCollectionWrappersKeepWrapped() throws Exception{
+        //wrapped map type is preserved, equal keys are not merged
+        IdentityHashMap<Object,Object> identity = new IdentityHashMap<Object, Object>();
+        identity.put(new String("a"), 1);
+        identity.put(new String("a"), 2);
+        Map identity2 = clone(Collections.unmodifiableMap(identity));
+        assertEquals(2, identity2.size());
+        Map synchronizedIdentity = clone(Collections.synchronizedMap(identity));
+        assertEquals(2, synchronizedIdentity.size());
+
+        //comparator of wrapped map is preserved, even if wrapper is not sorted
+        TreeMap<String,Object> caseInsensitive = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitive.put("A", 1);
+        Map caseInsensitive2 = clone(Collections.unmodifiableMap(caseInsensitive));
+        assertEquals(1, caseInsensitive2.get("a"));
+        TreeSet<String> caseInsensitiveSet = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitiveSet.add("A");
+        Set caseInsensitiveSet2 = clone(Collections.synchronizedSet(caseInsensitiveSet));
+        assertTrue(caseInsensitiveSet2.contains("a"));
+
+        //wrapper stays view over wrapped collection
+        List<Object> list = new ArrayList<Object>(Arrays.asList("a", "b"));
+        Map<Object,Object> map = new HashMap<Object, Object>();
+        List graph = clone(new ArrayList<Object>(Arrays.asList(
+                list, Collections.unmodifiableList(list), Collections.synchronizedList(list),
+                map, Collections.unmodifiableMap(map))));
+        List list2 = (List) graph.get(0);
+        list2.add("c");
+        assertEquals(Arrays.asList("a", "b", "c"), graph.get(1));
+        assertEquals(Arrays.asList("a", "b", "c"), graph.get(2));
+        ((Map) graph.get(3)).put("k", "v");
+        assertEquals(Collections.singletonMap("k", "v"), graph.get(4));
+    }
+
+    @Test public void testQueuesBitSetIdentityMap() throws IOException{
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+
+        BitSet bits = new BitSet();
+        assertEquals(bits, clone(bits));
+        bits.set(1);
+        bits.set(100);
+        bits.set(10000);
+        assertEquals(bits, clone(bits));
+        assertEquals(ElsaSerializerBase.Header.BITSET, TT.serialize(ser, bits)[0]&0xFF);
+
+        ArrayDeque<Object> deque = new ArrayDeque<Object>();
+        for(int i=0;i<100;i++)
+            deque.addFirst("a"+i);
+        ArrayDeque deque2 = clone(deque);
+        assertEquals(new ArrayList(deque), new ArrayList(deque2));
+        assertEquals(ElsaSerializerBase.Header.ARRAY_DEQUE, TT.serialize(ser, deque)[0]&0xFF);
+
+        PriorityQueue<Object> queue = new PriorityQueue<Object>(10, Collections.reverseOrder());
+        Random r = new Random();
+        for(int i=0;i<1000;i++)
+            queue.add(r.nextInt(100));
+        PriorityQueue queue2 = clone(queue);
+        assertEquals(ElsaSerializerBase.Header.PRIORITY_QUEUE, TT.serialize(ser, queue)[0]&0xFF);
+        assertEquals(queue.comparator(), queue2.comparator());
+        //heap order is preserved
+        assertEquals(new ArrayList(queue), new ArrayList(queue2));
+        while(!queue.isEmpty())
+            assertEquals(queue.poll(), queue2.poll());
+
+        IdentityHashMap<Object,Object> identity = new IdentityHashMap<Object, Object>();
+        identity.put(new String("a"), 1);
+        identity.put(new String("a"), 2);
+        identity.put("self", identity);
+        IdentityHashMap identity2 = clone(identity);
+        assertEquals(3, identity2.size());
+        assertTrue(identity2.containsValue(identity2));
+        assertEquals(ElsaSerializerBase.Header.IDENTITY_HASHMAP, TT.serialize(ser, identity)[0]&0xFF);
+
+        WeakHashMap<Object,Object> weak = new WeakHashMap<Object, Object>();
+        weak.put("a", 1);
+        weak.put("b", 2);
+        assertEquals(weak, clone(weak));
+        assertEquals(WeakHashMap.class, clone(weak).getClass());
+        assertEquals(ElsaSerializerBase.Header.WEAK_HASHMAP, TT.serialize(ser, weak)[0]&0xFF);
+    }
+
+    @Test public void testOptionalAtomic() throws IOException{
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+
+        assertSame(Optional.empty(), clone(Optional.empty()));
+        assertEquals(1, TT.serialize(ser, Optional.empty()).length);
+        assertEquals(Optional.of("aa"), clone(Optional.of("aa")));
+        assertEquals(2, TT.serialize(ser, Optional.of(1)).length);
+
+        assertEquals(-1, clone(new AtomicInteger(-1)).get());
+        assertEquals(Integer.MIN_VALUE, clone(new AtomicInteger(Integer.MIN_VALUE)).get());
+        assertEquals(2, TT.serialize(ser, new AtomicInteger()).length);
+        assertEquals(Long.MAX_VALUE, clone(new AtomicLong(Long.MAX_VALUE)).get());
+        assertEquals(2, TT.serialize(ser, new AtomicLong()).length);
+        LongAdder adder = new LongAdder();
+        adder.add(-100);
+        assertEquals(-100, clone(adder).sum());
+        assertEquals(2, TT.serialize(ser, new LongAdder()).length);
+
+        AtomicReference<Object> ref = new AtomicReference<Object>();
+        assertNull(clone(ref).get());
+        assertEquals(2, TT.serialize(ser, ref).length);
+        ref.set(ref);
+        AtomicReference ref2 = clone(ref);
+        assertSame(ref2, ref2.get());
+
+        //shared Optional keeps identity
+        Optional<String> opt = Optional.of("bb");
+        List list = clone(new ArrayList(Arrays.asList(opt, opt)));
+        assertSame(list.get(0), list.get(1));
+    }
+
+    @Test public void testClassRef() throws IOException{
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+
+        //component type name is written only once per stream
+        ArrayList<Object> arrays = new ArrayList<Object>();
+        for(int i=0;i<100;i++)
+            arrays.add(new String[]{"a"+i});
+        arrays.add(new String[2]);
+        arrays.add(String.class);
+        arrays.add(Integer[].class);
+        ArrayList arrays2 = clone(arrays);
+        for(int i=0;i<100;i++)
+            assertTrue(Arrays.equals((Object[]) arrays.get(i), (Object[]) arrays2.get(i)));
+        assertEquals(String[].class, arrays2.get(100).getClass());
+        assertEquals(2, ((Object[]) arrays2.get(100)).length);
+        assertEquals(String.class, arrays2.get(101));
+        assertEquals(Integer[].class, arrays2.get(102));
+        int nameLen = String.class.getName().length();
+        assertTrue(TT.serialize(ser, arrays).length < 100 * nameLen);
+
+        //class registered in resolver is referenced by its ID
+        ElsaSerializerPojo ser2 = new ElsaMaker().registerClasses(Serialization2Bean.class).make();
+        Serialization2Bean[] beans = new Serialization2Bean[]{new Serialization2Bean()};
+        byte[] b = TT.serialize(ser2, new Serialization2Bean[1]);
+        assertEquals(ElsaSerializerBase.Header.ARRAY_OBJECT_ALL_NULL_CLASS_REF, b[0]&0xFF);
+        assertEquals(3, b.length);
+        assertTrue(Arrays.equals(beans, ser2.clone(beans)));
+        assertEquals(Serialization2Bean[].class, ser2.clone(beans).getClass());
+        assertEquals(2, TT.serialize(ser2, Serialization2Bean.class).length);
+        assertEquals(Serialization2Bean.class, ser2.clone(Serialization2Bean.class));
+    }
+
+    @Test public void testClassRefOldFormat() throws IOException{
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        //data written by older versions contain full class name
+        out.write(ElsaSerializerBase.Header.ARRAYLIST);
+        ElsaUtil.packInt(out, 3);
+        out.write(ElsaSerializerBase.Header.ARRAY_OBJECT);
+        ElsaUtil.packInt(out, 1);
+        out.writeUTF(String.class.getName());
+        out.write(ElsaSerializerBase.Header.STRING_0);
+        out.write(ElsaSerializerBase.Header.ARRAY_OBJECT_ALL_NULL);
+        ElsaUtil.packInt(out, 2);
+        out.writeUTF(Long.class.getName());
+        out.write(ElsaSerializerBase.Header.CLASS);
+        out.writeUTF(Long.class.getName());
+
+        List l = (List) ser.deserialize(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(Arrays.equals(new String[]{""}, (Object[]) l.get(0)));
+        assertTrue(Arrays.equals(new Long[2], (Object[]) l.get(1)));
+        assertEquals(Long[].class, l.get(1).getClass());
+        assertEquals(Long.class, l.get(2));
+    }
+
+    @Test public void testDeepGraph() throws IOException{
+        int depth = 100000;
+        Object list = null;
+        Object array = null;
+        Object map = null;
+        Object opt = Optional.empty();
+        Object wrapper = Collections.emptyList();
+        Object skipList = new ConcurrentSkipListMap();
+        Object cowal = new CopyOnWriteArrayList();
+        for(int i=0;i<depth;i++){
+            list = new ArrayList(Arrays.asList(i, list));
+            array = new Object[]{array, i};
+            LinkedHashMap m = new LinkedHashMap();
+            m.put(i, map);
+            map = m;
+            opt = Optional.of(opt);
+            wrapper = Collections.unmodifiableList(Arrays.asList(i, wrapper));
+            ConcurrentSkipListMap s = new ConcurrentSkipListMap();
+            s.put(i, skipList);
+            skipList = s;
+            cowal = new CopyOnWriteArrayList(Arrays.asList(i, cowal));
+        }
+        ArrayList list2 = clone((ArrayList) list);
+        Object[] array2 = clone((Object[]) array);
+        LinkedHashMap map2 = clone((LinkedHashMap) map);
+        Object opt2 = clone(opt);
+        List wrapper2 = clone((List) wrapper);
+        ConcurrentSkipListMap skipList2 = clone((ConcurrentSkipListMap) skipList);
+        List cowal2 = clone((CopyOnWriteArrayList) cowal);
+        for(int i=depth-1;i>=0;i--){
+            assertEquals(i, list2.get(0));
+            list2 = (ArrayList) list2.get(1);
+            assertEquals(i, array2[1]);
+            array2 = (Object[]) array2[0];
+            map2 = (LinkedHashMap) map2.get(i);
+            opt2 = ((Optional) opt2).get();
+            assertEquals(i, wrapper2.get(0));
+            wrapper2 = (List) wrapper2.get(1);
+            skipList2 = (ConcurrentSkipListMap) skipList2.get(i);
+            assertEquals(i, cowal2.get(0));
+            cowal2 = (List) cowal2.get(1);
+        }
+        assertNull(list2);
+        assertNull(array2);
+        assertNull(map2);
+        assertEquals(Optional.empty(), opt2);
+        assertEquals(Collections.emptyList(), wrapper2);
+        assertTrue(skipList2.isEmpty());
+        assertTrue(cowal2.isEmpty());
+    }
+
+    @Test public void testSortedSelfReference() throws IOException{
+        TreeMap<Object,Object> map = new TreeMap<Object, Object>(Collections.reverseOrder());
+        map.put(1, map);
+        map.put(2, "a");
+        TreeMap map2 = clone(map);
+        assertEquals(Collections.reverseOrder(), map2.comparator());
+        assertEquals(Arrays.asList(2, 1), new ArrayList(map2.keySet()));
+        assertSame(map2, map2.get(1));
+
+        PriorityQueue<Object> queue = new PriorityQueue<Object>(1, Collections.reverseOrder());
+        queue.add(1);
+        queue.add(2);
+        List l = clone(new ArrayList(Arrays.asList(queue, queue)));
+        assertSame(l.get(0), l.get(1));
+        assertEquals(2, ((PriorityQueue) l.get(0)).peek());
+    }
+
     @Test public void testBigDecimal() throws IOException{
         BigDecimal d = new BigDecimal("445656.7889889895165654423236");
         assertEquals(d, clone((d)));
@@ -509,7 +909,12 @@ public class ElsaSerializerBaseTest {
 
             if(value!= ElsaSerializerBase.Header.POJO_RESOLVER
                     && value!= ElsaSerializerBase.Header.POJO
-                    && value!= ElsaSerializerBase.Header.POJO_CLASSINFO)
+                    && value!= ElsaSerializerBase.Header.POJO_CLASSINFO
+                    && value!= ElsaSerializerBase.Header.ENUM
+                    && value!= ElsaSerializerBase.Header.ENUM_SET
+                    && value!= ElsaSerializerBase.Header.ENUM_MAP
+                    && value!= ElsaSerializerBase.Header.POJO_REPLACED
+                    && value!= ElsaSerializerBase.Header.POJO_SERIAL)
                 assertNotNull("deser does not contain value: "+value + " - "+f.getName(), b.headerDeser[value]);
 
         }
@@ -0,0 +1,169 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ElsaVisitorTest {
+
+    /** records events as strings */
+    static class Recorder implements ElsaVisitor{
+        final List<String> events = new ArrayList<String>();
+
+        @Override public void onNull() {events.add("null");}
+        @Override public void onBoolean(boolean value) {events.add("boolean "+value);}
+        @Override public void onInt(int value) {events.add("int "+value);}
+        @Override public void onLong(long value) {events.add("long "+value);}
+        @Override public void onDouble(double value) {events.add("double "+value);}
+        @Override public void onString(String value) {events.add("string "+value);}
+        @Override public void onValue(Object value) {events.add("value "+value);}
+        @Override public void onBackReference(int index) {events.add("ref "+index);}
+        @Override public void onStartArray(Class componentType, int size) {events.add("array "+componentType.getSimpleName()+" "+size);}
+        @Override public void onEndArray() {events.add("endArray");}
+        @Override public void onStartCollection(Class type, int size) {events.add("collection "+type.getSimpleName()+" "+size);}
+        @Override public void onEndCollection() {events.add("endCollection");}
+        @Override public void onStartMap(Class type, int size) {events.add("map "+type.getSimpleName()+" "+size);}
+        @Override public void onEndMap() {events.add("endMap");}
+        @Override public void onStartPojo(String className, int fieldCount) {events.add("pojo "+className+" "+fieldCount);}
+        @Override public void onPojoField(String name) {events.add("field "+name);}
+        @Override public void onEndPojo() {events.add("endPojo");}
+    }
+
+    static List<String> visit(ElsaSerializerPojo ser, Object o) throws IOException {
+        byte[] b = TT.serialize(ser, o);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        Recorder r = new Recorder();
+        ser.visit(in, r);
+        //entire value was consumed
+        assertEquals(0, in.available());
+        return r.events;
+    }
+
+    ElsaSerializerPojo ser = new ElsaMaker().make();
+
+    @Test
+    public void leafs() throws IOException {
+        assertEquals(Arrays.asList("int 11"), visit(ser, 11));
+        assertEquals(Arrays.asList("long -1"), visit(ser, -1L));
+        assertEquals(Arrays.asList("string aa"), visit(ser, "aa"));
+        assertEquals(Arrays.asList("boolean true"), visit(ser, true));
+        assertEquals(Arrays.asList("null"), visit(ser, null));
+        assertEquals(Arrays.asList("value 1.5"), visit(ser, new BigDecimal("1.5")));
+    }
+
+    @Test
+    public void nested() throws IOException {
+        List<Object> inner = new ArrayList<Object>(Arrays.asList("a", 2.0));
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put("k", inner);
+        map.put(1, null);
+        Object[] arr = new Object[]{inner, map, new IntBean(5), new String[2]};
+
+        assertEquals(Arrays.asList(
+                "array Object 4",
+                "collection ArrayList 2", "string a", "double 2.0", "endCollection",
+                "map LinkedHashMap 2",
+                "string k", "ref 1",
+                "int 1", "null",
+                "endMap",
+                "pojo org.mapdb.elsa.IntBean 1", "field f", "int 5", "endPojo",
+                "array String 2", "null", "null", "endArray",
+                "endArray"
+        ), visit(ser, arr));
+    }
+
+    @Test
+    public void sorted() throws IOException {
+        TreeSet<Object> set = new TreeSet<Object>(Arrays.asList(2, 1));
+        assertEquals(Arrays.asList("collection TreeSet 2", "null", "int 1", "int 2", "endCollection"),
+                visit(ser, set));
+
+        TreeMap<Object, Object> map = new TreeMap<Object, Object>();
+        map.put(1, "a");
+        assertEquals(Arrays.asList("map TreeMap 1", "null", "int 1", "string a", "endMap"),
+                visit(ser, map));
+    }
+
+    @Test
+    public void selfReference() throws IOException {
+        List<Object> l = new ArrayList<Object>();
+        l.add(l);
+        l.add(Collections.unmodifiableList(Arrays.asList(1)));
+        List<String> events = visit(ser, l);
+        assertEquals(Arrays.asList("collection ArrayList 2", "ref 0", "value [1]", "endCollection"), events);
+    }
+
+    @Test
+    public void repeatedValues() throws IOException {
+        String tag = "EUR";
+        Integer seven = 7;
+        List<Object> inner = new ArrayList<Object>(Arrays.asList(1));
+        List<Object> l = new ArrayList<Object>(Arrays.asList(tag, tag, seven, seven, inner, inner));
+        //repeated leaf values are written as back references, but reported as values
+        assertEquals(Arrays.asList("collection ArrayList 6",
+                "string EUR", "string EUR", "int 7", "int 7",
+                "collection ArrayList 1", "int 1", "endCollection", "ref 3",
+                "endCollection"), visit(ser, l));
+    }
+
+    @Test
+    public void deep() throws IOException {
+        List<Object> l = new ArrayList<Object>();
+        List<Object> last = l;
+        for (int i = 0; i < 100000; i++) {
+            List<Object> next = new ArrayList<Object>();
+            last.add(next);
+            last = next;
+        }
+        final int[] counts = new int[2];
+        byte[] b = TT.serialize(ser, l);
+        ser.visit(new DataInputStream(new ByteArrayInputStream(b)), new ElsaVisitor() {
+            @Override
+            public void onStartCollection(Class type, int size) {
+                counts[0]++;
+            }
+
+            @Override
+            public void onEndCollection() {
+                counts[1]++;
+            }
+        });
+        assertEquals(100001, counts[0]);
+        assertEquals(100001, counts[1]);
+    }
+
+    @Test
+    public void chunked() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ElsaSerializerPojo ser = new ElsaMaker().parallel(pool, 64).make();
+            ArrayList<Object> l = new ArrayList<Object>();
+            HashMap<Object, Object> map = new HashMap<Object, Object>();
+            for (int i = 0; i < 1000; i++) {
+                l.add(new IntBean(i));
+                map.put(i, "a" + i);
+            }
+
+            List<String> events = visit(ser, new ArrayList<Object>(Arrays.asList(l, map)));
+            assertEquals("collection ArrayList 1000", events.get(1));
+            assertEquals(1000, Collections.frequency(events, "field f"));
+            assertEquals(1, Collections.frequency(events, "map HashMap 1000"));
+            int sum = 0;
+            for (String e : events) {
+                if (e.startsWith("int "))
+                    sum += Integer.parseInt(e.substring(4));
+            }
+            //bean fields and map keys
+            assertEquals(2 * 999 * 500, sum);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.mapdb.elsa;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests records. Test sources are compiled for Java 8, so record is compiled at runtime and test only runs on Java 16+.
+ */
+public class RecordTest {
+
+    static final String SOURCE =
+            "package rec;\n" +
+            "public record Point(int x, String name, java.util.List<Object> refs) implements java.io.Serializable {\n" +
+            "    public static int created = 0;\n" +
+            "    public Point {\n" +
+            "        if (x < 0) throw new IllegalArgumentException(\"negative\");\n" +
+            "        created++;\n" +
+            "    }\n" +
+            "}\n";
+
+    static Class<?> point;
+    static ElsaSerializerPojo ser;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        String version = System.getProperty("java.specification.version");
+        Assume.assumeTrue(!version.startsWith("1.") && Integer.parseInt(version) >= 16);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        File dir = Files.createTempDirectory("elsa-record").toFile();
+        File src = new File(dir, "Point.java");
+        Files.write(src.toPath(), SOURCE.getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, compiler.run(null, null, null, "-d", dir.getPath(), src.getPath()));
+
+        ClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, RecordTest.class.getClassLoader());
+        point = loader.loadClass("rec.Point");
+        ser = new ElsaMaker().classLoader(loader).make();
+    }
+
+    static Object newPoint(int x, String name, List<Object> refs) throws Exception {
+        Constructor<?> c = point.getConstructor(int.class, String.class, List.class);
+        return c.newInstance(x, name, refs);
+    }
+
+    static Object get(Object record, String component) throws Exception {
+        Method m = point.getMethod(component);
+        return m.invoke(record);
+    }
+
+    static int created() throws Exception {
+        return point.getField("created").getInt(null);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Object p = newPoint(1, "a", new ArrayList<Object>(Arrays.asList("b", 2)));
+        int created = created();
+        Object p2 = ser.clone(p);
+        assertNotSame(p, p2);
+        assertEquals(p, p2);
+        //instance was created by canonical (compact) constructor
+        assertEquals(created + 1, created());
+    }
+
+    @Test
+    public void sharedComponent() throws Exception {
+        List<Object> shared = new ArrayList<Object>(Arrays.asList("s"));
+        Object p1 = newPoint(1, "a", shared);
+        Object p2 = newPoint(2, "b", shared);
+        Object[] arr = (Object[]) ser.clone(new Object[]{p1, p2, p1});
+
+        assertEquals(p1, arr[0]);
+        assertEquals(p2, arr[1]);
+        assertSame(arr[0], arr[2]);
+        assertSame(get(arr[0], "refs"), get(arr[1], "refs"));
+    }
+
+    @Test
+    public void cyclicReference() throws Exception {
+        List<Object> refs = new ArrayList<Object>();
+        Object p = newPoint(1, "a", refs);
+        refs.add(p);
+        refs.add("b");
+
+        Object p2 = ser.clone(p);
+        List refs2 = (List) get(p2, "refs");
+        //record does not exist while its components are deserialized, cyclic reference is restored as null
+        assertEquals(Arrays.asList(null, "b"), refs2);
+        assertEquals("a", get(p2, "name"));
+    }
+}
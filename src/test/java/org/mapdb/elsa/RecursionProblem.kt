@@ -38,10 +38,24 @@ class RecursionProblem{
 
         val in0 = ByteArrayInputStream(out0.toByteArray())
         val in1 = DataInputStream(in0)
-        assertFailsWith<StackOverflowError> {
-            val elem2 = ser.deserialize(in1)
-            assertEquals(elem, elem2)
+        //deserialization does not use recursion
+        val elem2 = ser.deserialize(in1)
+        assertEquals(elem, elem2)
+    }
+
+    @Test
+    fun elsa_deep_collections(){
+        val ser = ElsaSerializerPojo()
+        var list:Any? = null
+        var map:Any? = null
+        for(i in 0 until depth){
+            list = arrayListOf(list, i)
+            map = hashMapOf(i to map)
         }
+        val list2 = ser.clone(list) as ArrayList<*>
+        assertEquals(depth-1, list2[1])
+        val map2 = ser.clone(map) as HashMap<*,*>
+        assertEquals(setOf(depth-1), map2.keys)
     }
 
 }
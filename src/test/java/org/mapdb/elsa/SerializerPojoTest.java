@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -48,6 +49,117 @@ public class SerializerPojoTest{
     }
 
 
+    enum WithBody{
+        A{ @Override int value(){return 1;} },
+        B{ @Override int value(){return 2;} };
+        abstract int value();
+    }
+
+    @Test public void testEnumCompact() throws Exception{
+        byte[] b = serialize(Arrays.asList(Order.DESCENDING, Order.ASCENDING, Order.DESCENDING, WithBody.B));
+        List l = (List) deserialize(b);
+        assertEquals(Arrays.asList(Order.DESCENDING, Order.ASCENDING, Order.DESCENDING, WithBody.B), l);
+        assertTrue(l.get(0) == l.get(2));
+        assertTrue(l.get(3) == WithBody.B);
+
+        ElsaSerializerPojo p2 = new ElsaMaker().registerClasses(Order.class, WithBody.class).make();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p2.serialize(new DataOutputStream(out), Order.DESCENDING);
+        //header, class ID, ordinal
+        assertEquals(3, out.size());
+        assertTrue(WithBody.A == ElsaSerializerBaseTest.clonePojo(WithBody.A, p2));
+        assertTrue(p2.enumConstants(Order.class) == p2.enumConstants(Order.class));
+    }
+
+    enum Big{
+        B0,B1,B2,B3,B4,B5,B6,B7,B8,B9,B10,B11,B12,B13,B14,B15,B16,B17,B18,B19,B20,B21,B22,B23,B24,B25,B26,B27,B28,B29,
+        B30,B31,B32,B33,B34,B35,B36,B37,B38,B39,B40,B41,B42,B43,B44,B45,B46,B47,B48,B49,B50,B51,B52,B53,B54,B55,B56,B57,
+        B58,B59,B60,B61,B62,B63,B64,B65,B66,B67,B68,B69
+    }
+
+    @Test public void testEnumSetMap() throws Exception{
+        ElsaSerializerPojo p2 = new ElsaMaker().registerClasses(Order.class, WithBody.class, Big.class).make();
+        List<Object> values = Arrays.<Object>asList(
+                EnumSet.noneOf(Order.class), EnumSet.allOf(Order.class), EnumSet.of(WithBody.B),
+                EnumSet.noneOf(Big.class), EnumSet.of(Big.B0, Big.B63, Big.B64, Big.B69), EnumSet.allOf(Big.class)
+        );
+        for(Object o:values){
+            assertEquals(o, ElsaSerializerBaseTest.clonePojo(o));
+            assertEquals(o, ElsaSerializerBaseTest.clonePojo(o, p2));
+            assertEquals(ElsaSerializerBase.Header.ENUM_SET, TT.serialize(p2, o)[0]&0xFF);
+        }
+        //header, class ID, mask size, mask
+        assertEquals(4, TT.serialize(p2, EnumSet.of(Order.DESCENDING)).length);
+
+        EnumMap<Big, Object> map = new EnumMap<Big, Object>(Big.class);
+        map.put(Big.B1, "aa");
+        map.put(Big.B69, null);
+        map.put(Big.B30, map);
+        EnumMap map2 = ElsaSerializerBaseTest.clonePojo(map, p2);
+        assertEquals(ElsaSerializerBase.Header.ENUM_MAP, TT.serialize(p2, map)[0]&0xFF);
+        assertEquals(3, map2.size());
+        assertEquals("aa", map2.get(Big.B1));
+        assertTrue(map2.containsKey(Big.B69));
+        assertTrue(map2 == map2.get(Big.B30));
+        map.remove(Big.B30);
+        assertEquals(map, ElsaSerializerBaseTest.clonePojo(map));
+
+        //empty map uses other serializer
+        EnumMap<Order, Object> empty = new EnumMap<Order, Object>(Order.class);
+        assertEquals(empty, ElsaSerializerBaseTest.clonePojo(empty));
+    }
+
+    @Test public void enumMap_deep() throws IOException {
+        int depth = 100000;
+        Object map = null;
+        for(int i=0;i<depth;i++){
+            EnumMap<Order, Object> m = new EnumMap<Order, Object>(Order.class);
+            m.put(Order.ASCENDING, i);
+            m.put(Order.DESCENDING, map);
+            map = m;
+        }
+        EnumMap map2 = ElsaSerializerBaseTest.clonePojo((EnumMap) map);
+        for(int i=depth-1;i>=0;i--){
+            assertEquals(i, map2.get(Order.ASCENDING));
+            map2 = (EnumMap) map2.get(Order.DESCENDING);
+        }
+        assertTrue(map2 == null);
+    }
+
+    static class ExtrBytes implements Externalizable{
+        static final Set<ObjectOutput> outputs = Collections.newSetFromMap(new IdentityHashMap<ObjectOutput, Boolean>());
+
+        byte[] b = new byte[0];
+
+        public ExtrBytes(){}
+
+        @Override public void writeExternal(ObjectOutput out) throws IOException {
+            outputs.add(out);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        @Override public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            b = new byte[in.readInt()];
+            assertEquals(b.length, in.read(b));
+        }
+    }
+
+    @Test public void testExternalizableBytes() throws Exception{
+        ExtrBytes e1 = new ExtrBytes();
+        e1.b = new byte[10000];
+        new Random().nextBytes(e1.b);
+        ExtrBytes e2 = new ExtrBytes();
+        e2.b = new byte[]{1,2,3};
+        ExtrBytes.outputs.clear();
+
+        List l = (List) deserialize(serialize(new ArrayList(Arrays.asList(e1, e2))));
+        assertTrue(Arrays.equals(e1.b, ((ExtrBytes) l.get(0)).b));
+        assertTrue(Arrays.equals(e2.b, ((ExtrBytes) l.get(1)).b));
+        //stream wrapper is reused
+        assertEquals(1, ExtrBytes.outputs.size());
+    }
+
     static class Extr  implements  Externalizable{
 
         public Extr(){}
@@ -352,6 +464,236 @@ public class SerializerPojoTest{
         assertTrue(ElsaSerializerPojo.useJavaSerialization(ExtHashMap.class));
     }
 
+    @Test public void java_serialization_hooks_jdk_class() throws IOException {
+        ExtHashMap m = new ExtHashMap();
+        m.put("aa", "bb");
+        m.put("cc", null);
+        ExtHashMap m2 = ElsaSerializerBaseTest.clonePojo(m);
+        assertEquals(m, m2);
+        //HashMap hooks use private JDK fields, format must not depend on JVM version
+        assertTrue(p.serialHooks.get(ExtHashMap.class) == null);
+    }
+
+    static class PartialRead implements Serializable{
+        int a;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(a + 1);
+            out.writeObject(Arrays.asList("aa", "bb"));
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            assertEquals(a + 1, in.readInt());
+            //remaining data are not read
+        }
+    }
+
+    @Test public void java_serialization_hooks_partial_read() throws IOException {
+        PartialRead r = new PartialRead();
+        r.a = 11;
+        assertTrue(p.serialHooks.get(PartialRead.class) != null);
+        List l = ElsaSerializerBaseTest.clonePojo(new ArrayList(Arrays.asList(r, "cc", r)));
+        assertEquals(11, ((PartialRead) l.get(0)).a);
+        assertEquals("cc", l.get(1));
+        assertTrue(l.get(0) == l.get(2));
+    }
+
+    static class NestedPartialRead implements Serializable{
+        int a;
+        NestedPartialRead next;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(a);
+            out.writeUTF("a" + a);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            assertEquals(a, in.readInt());
+            //string is skipped, after nested objects were read from the same block
+        }
+    }
+
+    @Test public void java_serialization_hooks_nested() throws IOException {
+        //hook streams are reused for each level of nesting
+        NestedPartialRead head = null;
+        for (int i = 0; i < 20; i++) {
+            NestedPartialRead r = new NestedPartialRead();
+            r.a = i;
+            r.next = head;
+            head = r;
+        }
+        List l = ElsaSerializerBaseTest.clonePojo(new ArrayList(Arrays.asList(head, "cc", head.next.next, head)));
+        NestedPartialRead r = (NestedPartialRead) l.get(0);
+        for (int i = 19; i >= 0; i--) {
+            assertEquals(i, r.a);
+            r = r.next;
+        }
+        assertTrue(r == null);
+        assertEquals("cc", l.get(1));
+        assertTrue(((NestedPartialRead) l.get(0)).next.next == l.get(2));
+        assertTrue(l.get(0) == l.get(3));
+    }
+
+    static class Hooked implements Serializable{
+        int a;
+        transient String b;
+        Hooked self;
+        List list = new ArrayList();
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeUTF(b);
+            out.writeObject(list);
+            out.writeInt(a*2);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            b = in.readUTF();
+            assertTrue(list == in.readObject());
+            assertEquals(a*2, in.readInt());
+        }
+    }
+
+    static class HookedFields extends Hooked{
+        long c;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            ObjectOutputStream.PutField f = out.putFields();
+            f.put("c", c+1);
+            out.writeFields();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            ObjectInputStream.GetField f = in.readFields();
+            c = f.get("c", 0L);
+        }
+    }
+
+    @Test public void java_serialization_hooks_fields() throws IOException {
+        HookedFields h = new HookedFields();
+        h.a = 11;
+        h.b = "bb";
+        h.c = 100;
+        h.self = h;
+        h.list.add(h);
+        h.list.add("aa");
+
+        HookedFields h2 = ElsaSerializerBaseTest.clonePojo(h);
+        assertEquals(11, h2.a);
+        assertEquals("bb", h2.b);
+        assertEquals(101, h2.c);
+        assertTrue(h2 == h2.self);
+        assertEquals(2, h2.list.size());
+        assertTrue(h2 == h2.list.get(0));
+        assertEquals("aa", h2.list.get(1));
+    }
+
+    static final class Resolved implements Serializable{
+        static final Resolved INSTANCE = new Resolved();
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    @Test public void java_serialization_readResolve() throws IOException {
+        Object[] a = new Object[]{new Resolved(), null};
+        a[1] = a[0];
+        Object[] a2 = ElsaSerializerBaseTest.clonePojo(a);
+        assertTrue(Resolved.INSTANCE == a2[0]);
+        assertTrue(Resolved.INSTANCE == a2[1]);
+    }
+
+    static class WriteOnlyHook implements Serializable{
+        int a;
+        byte[] b;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+    }
+
+    @Test public void java_serialization_fallback_data_output() throws IOException {
+        WriteOnlyHook h = new WriteOnlyHook();
+        h.a = 11;
+        h.b = new byte[3000];
+        new Random().nextBytes(h.b);
+        assertTrue(p.serialHooks.get(WriteOnlyHook.class) == null);
+
+        //RandomAccessFile is DataOutput and DataInput, but not stream
+        File f = File.createTempFile("elsa", "test");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            p.serialize(raf, Arrays.asList(h, "aa"));
+            raf.seek(0);
+            List l = (List) p.deserialize(raf);
+            WriteOnlyHook h2 = (WriteOnlyHook) l.get(0);
+            assertEquals(11, h2.a);
+            assertTrue(Arrays.equals(h.b, h2.b));
+            assertEquals("aa", l.get(1));
+            assertEquals(raf.length(), raf.getFilePointer());
+        }finally {
+            raf.close();
+        }
+    }
+
+    @Test public void concurrent_shared_serializer() throws Exception {
+        final ElsaSerializerPojo shared = new ElsaMaker().make();
+        final Object[] values = new Object[]{
+                new IntBean(11), Order.DESCENDING, new Serialization2Bean(), new ExtHashMap(), new Date(1111L),
+                new ArrayList(Arrays.asList(new IntBean(3), "aa", 1L))};
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        List<Future> futures = new ArrayList<Future>();
+        for(int i=0;i<8;i++){
+            final int seed = i;
+            futures.add(exec.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int j = 0; j < 1000; j++) {
+                        Object v = values[(seed + j) % values.length];
+                        assertEquals(v, ElsaSerializerBaseTest.clonePojo(v, shared));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future f:futures)
+            f.get();
+        exec.shutdown();
+    }
+
+    @Test public void stack_recycled() throws IOException {
+        ElsaStack s = p.borrowElsaStack();
+        s.add("aa");
+        s.addClassInfo(p.classInfoCache.get(IntBean.class));
+        s.stackPush("bb");
+        p.releaseElsaStack(s);
+
+        ElsaStack s2 = p.borrowElsaStack();
+        assertTrue(s == s2);
+        assertEquals(0, s2.getSize());
+        assertEquals(-1, s2.identityIndexOf("aa"));
+        assertEquals(-1, s2.resolveClassId(IntBean.class.getName()));
+        s2.stackFinish();
+        assertTrue(s2.stackEmpty());
+
+        //reentrant call gets new stack
+        assertTrue(s2 != p.borrowElsaStack());
+        p.releaseElsaStack(s2);
+
+        //class info must be written into each stream
+        assertEquals(new IntBean(5), deserialize(serialize(new IntBean(5))));
+        assertEquals(new IntBean(6), deserialize(serialize(new IntBean(6))));
+        assertEquals(new IntBean(7), p.clone(new IntBean(7)));
+        assertEquals(new IntBean(8), p.clone(new IntBean(8)));
+    }
+
     Class lastMissingClass;
     ElsaClassCallback lastMissingClassCallback = new ElsaClassCallback() {
         @Override
@@ -443,4 +785,139 @@ public class SerializerPojoTest{
         assertEquals(c, c2);
     }
 
+    @Test public void classInfoCache_per_serializer() throws IOException {
+        ElsaSerializerPojo p2 = new ElsaSerializerPojo();
+        ElsaSerializerPojo.ClassInfo c = p.classInfoCache.get(IntBean.class);
+
+        assertTrue(c == p.classInfoCache.get(IntBean.class));
+        assertTrue(c != p2.classInfoCache.get(IntBean.class));
+        assertEquals(c, p2.classInfoCache.get(IntBean.class));
+        assertEquals(new IntBean(5), ElsaSerializerBaseTest.clonePojo(new IntBean(5), p2));
+    }
+
+    static class ConstructorCounted implements Serializable{
+        static int constructorCalls = 0;
+        final int value;
+
+        ConstructorCounted(int value) {
+            constructorCalls++;
+            this.value = value;
+        }
+    }
+
+    @Test public void instantiator_skips_constructor() throws IOException {
+        ConstructorCounted c = new ConstructorCounted(11);
+        int calls = ConstructorCounted.constructorCalls;
+        for(int i=0;i<3;i++) {
+            assertEquals(11, ElsaSerializerBaseTest.clonePojo(c, p).value);
+        }
+        assertEquals(calls, ConstructorCounted.constructorCalls);
+        assertTrue(p.instantiators.get(ConstructorCounted.class) == p.instantiators.get(ConstructorCounted.class));
+    }
+
+
+    static class Message implements Serializable{
+        int id;
+        String text;
+        ArrayList<Object> items = new ArrayList<Object>();
+        HashMap<Object,Object> attrs = new HashMap<Object, Object>();
+        Object[] parts = new Object[2];
+        Message child;
+    }
+
+    @Test public void deserializeInto() throws Exception{
+        Message m = new Message();
+        m.id = 1;
+        m.text = "aa";
+        m.items.add("a");
+        m.items.add(2);
+        m.attrs.put("k", "v");
+        m.parts[0] = "p";
+        m.child = new Message();
+        m.child.id = 2;
+        byte[] b = serialize(m);
+
+        Message target = new Message();
+        ArrayList items = target.items;
+        HashMap attrs = target.attrs;
+        Object[] parts = target.parts;
+        target.items.add("old");
+        target.attrs.put("old", "old");
+        target.child = new Message();
+        Message child = target.child;
+        ArrayList childItems = child.items;
+
+        Message ret = p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), target);
+        //the same instances are refilled
+        assertTrue(ret == target);
+        assertTrue(items == target.items);
+        assertTrue(attrs == target.attrs);
+        assertTrue(parts == target.parts);
+        assertTrue(child == target.child);
+        assertTrue(childItems == target.child.items);
+        assertEquals(1, target.id);
+        assertEquals("aa", target.text);
+        assertEquals(Arrays.asList("a", 2), target.items);
+        assertEquals(Collections.singletonMap("k", "v"), target.attrs);
+        assertTrue(Arrays.equals(new Object[]{"p", null}, target.parts));
+        assertEquals(2, target.child.id);
+        assertTrue(target.child.child == null);
+
+        //the same works with registered classes and repeatedly
+        ElsaSerializerPojo p2 = new ElsaMaker().registerClasses(Message.class).make();
+        b = TT.serialize(p2, m);
+        for(int i=0;i<3;i++){
+            assertTrue(target == p2.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), target));
+            assertTrue(items == target.items);
+            assertEquals(Arrays.asList("a", 2), target.items);
+        }
+
+        //incompatible target is ignored
+        b = serialize(Arrays.asList(1, 2));
+        assertEquals(Arrays.asList(1, 2), p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), target));
+        LinkedList l = new LinkedList();
+        b = serialize(new ArrayList(Arrays.asList(1, 2)));
+        Object ret2 = p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), l);
+        assertEquals(ArrayList.class, ret2.getClass());
+        assertTrue(l.isEmpty());
+        assertEquals(Arrays.asList(1, 2), p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), null));
+    }
+
+    static class Aliased implements Serializable{
+        ArrayList<Object> a;
+        ArrayList<Object> b;
+        transient String cache;
+    }
+
+    @Test public void deserializeInto_aliased() throws Exception{
+        Aliased m = new Aliased();
+        m.a = new ArrayList<Object>(Arrays.asList("A1", "A2"));
+        m.b = new ArrayList<Object>(Arrays.asList("B"));
+        byte[] b = serialize(m);
+
+        Aliased target = new Aliased();
+        ArrayList<Object> shared = new ArrayList<Object>();
+        target.a = shared;
+        target.b = shared;
+        target.cache = "old";
+
+        assertTrue(target == p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), target));
+        //shared instance is refilled only once, second field gets new instance
+        assertTrue(shared == target.a);
+        assertTrue(shared != target.b);
+        assertEquals(Arrays.asList("A1", "A2"), target.a);
+        assertEquals(Arrays.asList("B"), target.b);
+        //transient field is not modified
+        assertEquals("old", target.cache);
+
+        //aliased in data, both fields reference refilled instance
+        m.b = m.a;
+        b = serialize(m);
+        target.b = new ArrayList<Object>();
+        p.deserializeInto(new DataInputStream(new ByteArrayInputStream(b)), target);
+        assertTrue(shared == target.a);
+        assertTrue(shared == target.b);
+        assertEquals(Arrays.asList("A1", "A2"), shared);
+    }
+
 }
@@ -31,12 +31,15 @@ object TT{
         return data
     }
 
-    fun  toHex(ser: ElsaSerializer, obj: Any):String {
+    @JvmStatic fun  serialize(ser: ElsaSerializer, obj: Any?):ByteArray {
         val out = ByteArrayOutputStream()
         val out2 = DataOutputStream(out)
         ser.serialize(out2, obj)
+        return out.toByteArray()
+    }
 
-        return bytesToHex(out.toByteArray())
+    fun  toHex(ser: ElsaSerializer, obj: Any):String {
+        return bytesToHex(serialize(ser, obj))
     }
 
     @JvmStatic fun randomString(size: Int=1+Random().nextInt(32), seed: Int= Random().nextInt()): String {